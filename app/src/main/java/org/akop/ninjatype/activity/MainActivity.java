@@ -83,6 +83,14 @@ public class MainActivity
 		}
 	}
 
+	@Override
+	public void onDictionaryFailed()
+	{
+		if (mStatus != null) {
+			mStatus.setText(R.string.dictionary_failed);
+		}
+	}
+
 	private class Adapter
 			extends BaseAdapter
 	{
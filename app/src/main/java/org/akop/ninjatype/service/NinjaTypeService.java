@@ -0,0 +1,156 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.service;
+
+import android.inputmethodservice.InputMethodService;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+
+import org.akop.ninjatype.R;
+import org.akop.ninjatype.view.DictionaryRegistry;
+import org.akop.ninjatype.view.NinjaTypeView;
+
+import java.util.List;
+import java.util.Locale;
+
+
+public class NinjaTypeService
+		extends InputMethodService
+		implements NinjaTypeView.OnWordSwipedListener,
+		NinjaTypeView.OnReadyListener
+{
+	private static final String LOG_TAG = NinjaTypeService.class.getSimpleName();
+
+	private NinjaTypeView mInputView;
+	private int mInputViewWidth;
+	private long mShownAtNanos;
+	private long mShowToReadyNanos = -1;
+	private boolean mAwaitingReady;
+
+	@Override
+	public void onCreate()
+	{
+		super.onCreate();
+
+		// Hold on to the dictionary for as long as the service is around,
+		// so that it's ready whenever the keyboard is shown
+		DictionaryRegistry.acquire(this, R.raw.default_dictionary, null);
+	}
+
+	@Override
+	public void onDestroy()
+	{
+		DictionaryRegistry.release(R.raw.default_dictionary, null);
+
+		super.onDestroy();
+	}
+
+	@Override
+	public void onInitializeInterface()
+	{
+		super.onInitializeInterface();
+
+		// Called again on configuration change - keyboard geometry only
+		// needs to be redone if the available width actually changed
+		int width = getMaxWidth();
+		if (width != mInputViewWidth) {
+			mInputView = null;
+			mInputViewWidth = width;
+		}
+	}
+
+	@Override
+	public View onCreateInputView()
+	{
+		if (mInputView == null) {
+			mInputView = (NinjaTypeView) getLayoutInflater().inflate(
+					R.layout.input_view, null);
+			mInputView.setOnWordSwipedListener(this);
+			mInputView.setOnReadyListener(this);
+		} else {
+			ViewParent parent = mInputView.getParent();
+			if (parent instanceof ViewGroup) {
+				((ViewGroup) parent).removeView(mInputView);
+			}
+		}
+
+		return mInputView;
+	}
+
+	@Override
+	public void onStartInputView(EditorInfo info, boolean restarting)
+	{
+		super.onStartInputView(info, restarting);
+
+		mShownAtNanos = System.nanoTime();
+		mAwaitingReady = true;
+
+		// A reused view is usually ready already
+		if (mInputView != null && mInputView.isReady()) {
+			onReady();
+		}
+	}
+
+	@Override
+	public void onReady()
+	{
+		if (mAwaitingReady) {
+			mAwaitingReady = false;
+			mShowToReadyNanos = System.nanoTime() - mShownAtNanos;
+
+			Log.v(LOG_TAG, String.format(Locale.getDefault(),
+					"Show to ready: %.02fms", mShowToReadyNanos / 1000000f));
+		}
+	}
+
+	@Override
+	public void onWordSwiped(List<String> candidates)
+	{
+		InputConnection ic = getCurrentInputConnection();
+		if (ic == null) {
+			return;
+		}
+
+		// Candidates come spelled as in the dictionary, case included
+		String word = candidates.get(0);
+
+		// Separator and word go in as a single edit
+		ic.beginBatchEdit();
+		CharSequence before = ic.getTextBeforeCursor(1, 0);
+		if (!TextUtils.isEmpty(before)
+				&& !Character.isWhitespace(before.charAt(0))) {
+			ic.commitText(" ", 1);
+		}
+		ic.commitText(word, 1);
+		ic.endBatchEdit();
+	}
+
+	@Override
+	public void onNoMatches()
+	{
+	}
+
+	// Time between the keyboard being shown and it being able to decode
+	// swipes (laid out, dictionary loaded), or -1 if it hasn't been yet
+	public long getShowToReadyNanos()
+	{
+		return mShowToReadyNanos;
+	}
+}
@@ -0,0 +1,143 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+class CandidateCache
+{
+	// Every key in a gesture signature is encoded as a fixed-length token,
+	// so the prefixes of a signature fall on multiples of TOKEN_LENGTH
+	static final int TOKEN_LENGTH = 3;
+
+	private final Map<String, Entry> mEntries;
+	private final Map<String, Integer> mPrefixes;
+	private int mGeneration;
+	private int mHits;
+	private int mMisses;
+	private long mSavedNanos;
+
+	CandidateCache(final int capacity)
+	{
+		mPrefixes = new HashMap<>();
+		mEntries = new LinkedHashMap<String, Entry>(capacity, .75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+			{
+				if (size() > capacity) {
+					removePrefixes(eldest.getKey());
+					return true;
+				}
+
+				return false;
+			}
+		};
+		mGeneration = -1;
+	}
+
+	static void appendToken(StringBuilder signature, char ch,
+			int weightBucket, int proximityBucket)
+	{
+		signature.append(ch)
+				.append((char) ('0' + weightBucket))
+				.append((char) ('0' + proximityBucket));
+	}
+
+	void validate(int generation)
+	{
+		if (mGeneration != generation) {
+			invalidate();
+			mGeneration = generation;
+		}
+	}
+
+	void invalidate()
+	{
+		mEntries.clear();
+		mPrefixes.clear();
+	}
+
+	boolean isPrefix(CharSequence signature)
+	{
+		return mPrefixes.containsKey(signature.toString());
+	}
+
+	List<String> get(String signature)
+	{
+		Entry entry = mEntries.get(signature);
+		if (entry == null) {
+			mMisses++;
+			return null;
+		}
+
+		mHits++;
+		mSavedNanos += entry.mDecodeNanos;
+
+		return new ArrayList<>(entry.mCandidates);
+	}
+
+	void put(String signature, List<String> candidates, long decodeNanos)
+	{
+		if (mEntries.put(signature, new Entry(candidates, decodeNanos)) == null) {
+			for (int i = TOKEN_LENGTH; i <= signature.length(); i += TOKEN_LENGTH) {
+				String prefix = signature.substring(0, i);
+				Integer count = mPrefixes.get(prefix);
+				mPrefixes.put(prefix, (count == null) ? 1 : count + 1);
+			}
+		}
+	}
+
+	float hitRatio()
+	{
+		int lookups = mHits + mMisses;
+		return (lookups > 0) ? (float) mHits / lookups : 0;
+	}
+
+	long savedDecodeNanos()
+	{
+		return mSavedNanos;
+	}
+
+	private void removePrefixes(String signature)
+	{
+		for (int i = TOKEN_LENGTH; i <= signature.length(); i += TOKEN_LENGTH) {
+			String prefix = signature.substring(0, i);
+			Integer count = mPrefixes.get(prefix);
+			if (count != null && count > 1) {
+				mPrefixes.put(prefix, count - 1);
+			} else {
+				mPrefixes.remove(prefix);
+			}
+		}
+	}
+
+	private static class Entry
+	{
+		final List<String> mCandidates;
+		final long mDecodeNanos;
+
+		Entry(List<String> candidates, long decodeNanos)
+		{
+			mCandidates = new ArrayList<>(candidates);
+			mDecodeNanos = decodeNanos;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import android.util.Log;
+
+
+// Keeps decoding within a share of each frame. Decode time is measured per
+// touch event; when it runs over, the decoder is asked to look back over
+// fewer keys and to keep fewer hypotheses per key. Once it's comfortably
+// under budget for a while, both are relaxed one step at a time
+class DecodeBudget
+{
+	private static final String LOG_TAG = DecodeBudget.class.getSimpleName();
+
+	// Share of the frame interval the decoder may use per event
+	static final float FRAME_SHARE = .25f;
+
+	// Hypotheses kept per key when not degraded
+	static final int UNLIMITED = Integer.MAX_VALUE;
+
+	private static final float DEFAULT_REFRESH_RATE = 60;
+	private static final int MIN_LOOK_BACK = 2;
+	private static final int MIN_BEAM_WIDTH = 16;
+	private static final int MAX_BEAM_WIDTH = 1024;
+
+	// Events under half the budget before relaxing a step
+	private static final int RELAX_AFTER = 8;
+
+	private final int mMaxLookBack;
+	private long mBudgetNanos;
+	private int mLookBack;
+	private int mBeamWidth;
+	private long mDeadline;
+	private long mSpentNanos;
+	private int mWidestAdded;
+	private int mCalmEvents;
+	private int mDegradations;
+
+	DecodeBudget(int maxLookBack)
+	{
+		mMaxLookBack = maxLookBack;
+		mLookBack = maxLookBack;
+		mBeamWidth = UNLIMITED;
+		setRefreshRate(DEFAULT_REFRESH_RATE);
+	}
+
+	void setRefreshRate(float refreshRate)
+	{
+		if (refreshRate < 1) {
+			refreshRate = DEFAULT_REFRESH_RATE;
+		}
+		mBudgetNanos = (long) (1000000000L / refreshRate * FRAME_SHARE);
+	}
+
+	void beginEvent()
+	{
+		mDeadline = System.nanoTime() + mBudgetNanos;
+		mSpentNanos = 0;
+		mWidestAdded = 0;
+	}
+
+	boolean expired()
+	{
+		return System.nanoTime() > mDeadline;
+	}
+
+	// Called for every decode step during the event
+	void spent(long nanos, int added)
+	{
+		mSpentNanos += nanos;
+		if (added > mWidestAdded) {
+			mWidestAdded = added;
+		}
+	}
+
+	void endEvent()
+	{
+		if (mSpentNanos == 0) {
+			return; // Nothing decoded - says nothing about load
+		}
+
+		if (mSpentNanos > mBudgetNanos) {
+			tighten();
+		} else if (mSpentNanos < mBudgetNanos / 2 && isDegraded()) {
+			if (++mCalmEvents >= RELAX_AFTER) {
+				relax();
+			}
+		}
+	}
+
+	boolean isDegraded()
+	{
+		return mLookBack < mMaxLookBack || mBeamWidth != UNLIMITED;
+	}
+
+	int lookBack()
+	{
+		return mLookBack;
+	}
+
+	int beamWidth()
+	{
+		return mBeamWidth;
+	}
+
+	long budgetNanos()
+	{
+		return mBudgetNanos;
+	}
+
+	int degradations()
+	{
+		return mDegradations;
+	}
+
+	private void tighten()
+	{
+		mCalmEvents = 0;
+
+		int lookBack = Math.max(MIN_LOOK_BACK, mLookBack - 1);
+		int beamWidth;
+		if (mBeamWidth == UNLIMITED) {
+			// Start from what was actually being kept
+			beamWidth = Math.min(MAX_BEAM_WIDTH, mWidestAdded / 2);
+		} else {
+			beamWidth = mBeamWidth / 2;
+		}
+		beamWidth = Math.max(MIN_BEAM_WIDTH, beamWidth);
+
+		if (lookBack == mLookBack && beamWidth == mBeamWidth) {
+			return; // Nothing left to give
+		}
+
+		mLookBack = lookBack;
+		mBeamWidth = beamWidth;
+		mDegradations++;
+
+		Log.v(LOG_TAG, String.format("Over budget (%.02fms): look-back %d, beam %d",
+				mSpentNanos / 1000000f, mLookBack, mBeamWidth));
+	}
+
+	private void relax()
+	{
+		mCalmEvents = 0;
+
+		if (mLookBack < mMaxLookBack) {
+			mLookBack++;
+		}
+		if (mBeamWidth != UNLIMITED) {
+			mBeamWidth = (mBeamWidth >= MAX_BEAM_WIDTH) ? UNLIMITED : mBeamWidth * 2;
+		}
+
+		Log.v(LOG_TAG, String.format("Under budget: look-back %d, beam %d",
+				mLookBack, mBeamWidth));
+	}
+}
@@ -16,15 +16,22 @@ package org.akop.ninjatype.view;
 
 import android.content.Context;
 import android.content.res.Resources;
-import android.os.Handler;
 import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 
@@ -36,83 +43,259 @@ public class Dictionary
 	{
 		void onDictionaryLoading();
 		void onDictionaryReady();
+		void onDictionaryFailed();
 	}
 
-	private static final INode STUB_NODE = new INode();
+	private static final INode STUB_NODE = new INode(null, '\0');
+
+	// Number of completions cached per node
+	static final int TOP_K = 8;
 
 	INode mRoot;
-	OnStatusChangeListener mOnStatusChangeListener;
+	private INode[] mWords;
+	private SparseArray<String[]> mSurfaces;
+	volatile int mGeneration;
+	// Whether the last load came from a snapshot, rather than the resource
+	boolean mFromSnapshot;
+	private DictionarySnapshot mPendingSnapshot;
 
 	Dictionary()
 	{
 		mRoot = STUB_NODE;
+		mWords = new INode[0];
+		mSurfaces = new SparseArray<>();
+	}
+
+	// How the word ending at node is actually spelled, if that's anything
+	// other than its keys in lowercase - null otherwise
+	String[] surfaceForms(INode node)
+	{
+		return (node.mWordId >= 0) ? mSurfaces.get(node.mWordId) : null;
+	}
+
+	// The most common words starting with prefix, most common first. Word
+	// ids are assigned shortest word first, which stands in for frequency
+	// as the bundled word lists don't have any
+	List<String> complete(CharSequence prefix, int limit)
+	{
+		INode node = mRoot;
+		INode[] words = mWords;
+		SparseArray<String[]> surfaces = mSurfaces;
+		for (int i = 0, n = prefix.length(); i < n && node != null; i++) {
+			node = node.next(prefix.charAt(i));
+		}
+
+		List<String> completions = new ArrayList<>();
+		if (node != null && node.mTopK != null) {
+			for (int i = 0; i < node.mTopK.length && completions.size() < limit; i++) {
+				String[] forms = surfaces.get(node.mTopK[i]);
+				if (forms == null) {
+					completions.add(words[node.mTopK[i]].word().toLowerCase(Locale.ROOT));
+					continue;
+				}
+				for (int j = 0; j < forms.length && completions.size() < limit; j++) {
+					completions.add(forms[j]);
+				}
+			}
+		}
+
+		return completions;
 	}
 
-	void readFromResource(final Context context, final int resourceId)
+	// Words within maxDistance edits of the given word, cheapest first
+	List<FuzzyLookup.Result> lookupApproximate(String word, int maxDistance,
+			int limit)
+	{
+		return new FuzzyLookup(word, maxDistance, limit).search(mRoot);
+	}
+
+	// Blocks until loaded - meant to be run off the main thread. Returns
+	// false if loading failed or the thread was interrupted
+	boolean load(Context context, int resourceId)
 	{
 		final long started = SystemClock.uptimeMillis();
-		final Handler handler = new Handler();
 
-		if (mOnStatusChangeListener != null) {
-			mOnStatusChangeListener.onDictionaryLoading();
+		Resources res = context.getResources();
+		DictionarySnapshot snapshot = new DictionarySnapshot(context,
+				resourceId);
+
+		List<INode> indexed = new ArrayList<>();
+		SparseArray<String[]> surfaces = new SparseArray<>();
+		INode newRoot = snapshot.read(indexed, surfaces);
+		boolean fromSnapshot = (newRoot != null);
+		TrieBuilder builder = null;
+
+		if (newRoot == null && !Thread.currentThread().isInterrupted()) {
+			InputStream resStream = res.openRawResource(resourceId);
+			try {
+				builder = readFromStream(resStream);
+				newRoot = builder.mRoot;
+			} catch (InterruptedIOException e) {
+				Log.v(LOG_TAG, "Dictionary load cancelled");
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				try { resStream.close(); }
+				catch (IOException e) { /* */ }
+			}
 		}
 
-		new Thread(new Runnable()
-		{
-			@Override
-			public void run()
-			{
-				Resources res = context.getResources();
-				InputStream resStream = res.openRawResource(resourceId);
+		if (newRoot == null || Thread.currentThread().isInterrupted()) {
+			return false;
+		}
 
-				INode newRoot = null;
+		INode[] words;
+		if (fromSnapshot) {
+			// Already indexed
+			words = indexed.toArray(new INode[indexed.size()]);
+		} else {
+			words = indexWords(newRoot);
 
-				try {
-					newRoot = readFromStream(resStream);
-				} catch (IOException e) {
-					e.printStackTrace();
-				} finally {
-					try { resStream.close(); }
-					catch (IOException e) { /* */ }
-				}
+			// Word ids are only known now
+			for (Map.Entry<INode, List<String>> entry: builder.mSurfaces.entrySet()) {
+				List<String> forms = entry.getValue();
+				surfaces.put(entry.getKey().mWordId,
+						forms.toArray(new String[forms.size()]));
+			}
+		}
 
-				if (newRoot != null) {
-					mRoot = newRoot;
-
-					if (mOnStatusChangeListener != null) {
-						handler.post(new Runnable()
-						{
-							@Override
-							public void run()
-							{
-								mOnStatusChangeListener.onDictionaryReady();
-							}
-						});
-					}
-					Log.v(LOG_TAG, String.format("Loaded dictionary in %.02fs",
-							(SystemClock.uptimeMillis() - started) / 1000f));
-				}
+		mRoot = newRoot;
+		mWords = words;
+		mSurfaces = surfaces;
+		mFromSnapshot = fromSnapshot;
+		mGeneration++;
+
+		Log.v(LOG_TAG, String.format("Loaded dictionary from %s in %.02fs",
+				fromSnapshot ? "snapshot" : "resource",
+				(SystemClock.uptimeMillis() - started) / 1000f));
+
+		if (!fromSnapshot) {
+			mPendingSnapshot = snapshot;
+		}
+
+		return true;
+	}
+
+	// Regenerates the snapshot if the last load didn't come from one.
+	// Called after listeners have been notified
+	void writeSnapshot()
+	{
+		DictionarySnapshot snapshot = mPendingSnapshot;
+		mPendingSnapshot = null;
+
+		if (snapshot != null) {
+			snapshot.write(mRoot, mSurfaces);
+		}
+	}
+
+	// Assigns word ids in breadth-first order (shortest words first, then
+	// alphabetically), then caches the TOP_K lowest ids of every subtree
+	// in a single bottom-up pass. DictionarySnapshot relies on both
+	private static INode[] indexWords(INode root)
+	{
+		List<INode> nodes = new ArrayList<>();
+		List<INode> words = new ArrayList<>();
+
+		// Children are kept in alphabetical order
+		nodes.add(root);
+		for (int i = 0; i < nodes.size(); i++) {
+			INode node = nodes.get(i);
+			if (node.mEnd) {
+				node.mWordId = words.size();
+				words.add(node);
+			}
+			Collections.addAll(nodes, node.mChildren);
+		}
+
+		int[] merged = new int[TOP_K];
+		int[] scratch = new int[TOP_K];
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			INode node = nodes.get(i);
+			INode[] children = node.mChildren;
+
+			// A non-terminal node with one child has the same completions
+			// as that child, so share them
+			if (!node.mEnd && children.length == 1) {
+				node.mTopK = children[0].mTopK;
+				continue;
 			}
-		}).start();
+
+			int count = 0;
+			if (node.mEnd) {
+				merged[count++] = node.mWordId;
+			}
+			for (INode child: children) {
+				count = mergeTopK(merged, count, child.mTopK, scratch);
+			}
+			node.mTopK = Arrays.copyOf(merged, count);
+		}
+
+		return words.toArray(new INode[words.size()]);
 	}
 
-	private static INode readFromStream(InputStream inputStream)
+	// Merges two ascending lists of ids into dest, keeping at most TOP_K
+	private static int mergeTopK(int[] dest, int count, int[] src, int[] scratch)
+	{
+		if (src == null || src.length == 0) {
+			return count;
+		}
+
+		System.arraycopy(dest, 0, scratch, 0, count);
+		int i = 0, j = 0, k = 0;
+		while (k < TOP_K && (i < count || j < src.length)) {
+			if (j >= src.length || (i < count && scratch[i] < src[j])) {
+				dest[k++] = scratch[i++];
+			} else {
+				dest[k++] = src[j++];
+			}
+		}
+
+		return k;
+	}
+
+	static TrieBuilder readFromStream(InputStream inputStream)
+			throws IOException
+	{
+		BufferedInputStream in = new BufferedInputStream(inputStream);
+		in.mark(4);
+		int magic = 0;
+		for (int i = 0, b; i < 4 && (b = in.read()) != -1; i++) {
+			magic = (magic << 8) | b;
+		}
+		in.reset();
+
+		TrieBuilder builder = new TrieBuilder();
+
+		// Compressed dictionaries are preferred, but plain word lists (one
+		// word per line) are still accepted
+		if (DictionaryFormat.isCompressed(magic)) {
+			DictionaryFormat.read(in, builder);
+		} else {
+			readText(in, builder);
+		}
+
+		return builder;
+	}
+
+	private static void readText(InputStream inputStream, TrieBuilder builder)
 			throws IOException
 	{
 		BufferedReader reader = null;
-		INode root = new INode();
+		char[] previous = new char[0];
 
 		try {
-			reader = new BufferedReader(new InputStreamReader(inputStream));
+			reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
 			String line;
 			while ((line = reader.readLine()) != null) {
-				INode node = root;
-				for (char ch: line.toCharArray()) {
-					if (Character.isLetter(ch)) {
-						node = node.appendINode(ch);
-					}
+				char[] chars = line.toCharArray();
+				int shared = 0;
+				int max = Math.min(previous.length, chars.length);
+				while (shared < max && previous[shared] == chars[shared]) {
+					shared++;
 				}
-				node.mEnd = true;
+
+				builder.onWord(chars, shared, chars.length);
+				previous = chars;
 			}
 		} finally {
 			if (reader != null) {
@@ -120,40 +303,225 @@ public class Dictionary
 				catch (IOException e2) { /* */ }
 			}
 		}
+	}
+
+	// Builds the trie over the key alphabet, one word at a time. Each word
+	// resumes from the end of the prefix it shares with the previous one
+	static class TrieBuilder
+			implements DictionaryFormat.Sink
+	{
+		final INode mRoot;
+		final Map<INode, List<String>> mSurfaces;
+
+		// mPath[i] is the node reached after the first i chars of the
+		// current word, mPlain[i] whether those were all plain letters.
+		// Both are only valid up to mValid
+		INode[] mPath;
+		boolean[] mPlain;
+		int mValid;
+		final char[] mFolded;
+
+		TrieBuilder()
+		{
+			mRoot = new INode(null, '\0');
+			mSurfaces = new HashMap<>();
+			mPath = new INode[] { mRoot };
+			mPlain = new boolean[] { true };
+			mFolded = new char[LetterFolding.MAX_EXPANSION];
+		}
+
+		@Override
+		public void onWord(char[] chars, int shared, int length)
+				throws IOException
+		{
+			if (Thread.currentThread().isInterrupted()) {
+				throw new InterruptedIOException();
+			}
+			if (length >= mPath.length) {
+				mPath = Arrays.copyOf(mPath, length * 2);
+				mPlain = Arrays.copyOf(mPlain, length * 2);
+			}
+
+			int start = Math.min(shared, mValid);
+
+			// Words that can't be typed on the keys would only be dead
+			// weight in the trie
+			for (int i = start; i < length; i++) {
+				if (LetterFolding.fold(chars[i], mFolded, 0) == LetterFolding.UNREACHABLE) {
+					// Nothing past start was rebuilt for this word, so the
+					// path beyond it still belongs to an earlier one
+					mValid = start;
+					return;
+				}
+			}
+
+			for (int i = start; i < length; i++) {
+				INode node = mPath[i];
+				int n = LetterFolding.fold(chars[i], mFolded, 0);
+				for (int j = 0; j < n; j++) {
+					node = node.appendINode(mFolded[j]);
+				}
+				mPath[i + 1] = node;
+				mPlain[i + 1] = mPlain[i] && LetterFolding.isPlain(chars[i]);
+			}
+			mValid = length;
+
+			INode node = mPath[length];
+			if (node != mRoot) {
+				addWord(node, chars, length, mPlain[length]);
+			}
+		}
+
+		private void addWord(INode node, char[] chars, int length, boolean plain)
+		{
+			List<String> forms = mSurfaces.get(node);
+			if (!plain) {
+				if (forms == null) {
+					forms = new ArrayList<>(2);
+					mSurfaces.put(node, forms);
 
-		return root;
+					// Keep any plain spelling seen so far
+					if (node.mEnd) {
+						forms.add(node.word().toLowerCase(Locale.ROOT));
+					}
+				}
+				forms.add(new String(chars, 0, length));
+			} else if (forms != null) {
+				// Plain spellings go first - capitalized ones sort ahead
+				// of them, but are usually the less common
+				String word = new String(chars, 0, length);
+				if (!forms.contains(word)) {
+					forms.add(0, word);
+				}
+			}
+
+			node.mEnd = true;
+		}
 	}
 
 	static class INode
 	{
-		private Map<Character, INode> mNodes = null;
+		private static final INode[] NO_CHILDREN = new INode[0];
+
+		private final INode mParent;
+		private final char mChar;
+		private int mChildMask;
+		private INode[] mChildren;
 		private boolean mEnd;
+		private int mWordId = -1;
+		private int[] mTopK;
 
-		private INode appendINode(char ch)
+		INode(INode parent, char ch)
 		{
-			if (mNodes == null) {
-				mNodes = new HashMap<>();
-			}
+			mParent = parent;
+			mChar = ch;
+			mChildren = NO_CHILDREN;
+		}
 
-			ch = Character.toUpperCase(ch);
+		// ch must be in the key alphabet. Children are packed in alphabet
+		// order, and located by counting the mask bits below theirs
+		INode appendINode(char ch)
+		{
+			int bit = Keyboard.bit(ch);
+			if (bit == 0) {
+				throw new IllegalArgumentException("Not in key alphabet: " + ch);
+			}
 
-			INode in = mNodes.get(ch);
-			if (in == null) {
-				mNodes.put(ch, in = new INode());
+			int index = Integer.bitCount(mChildMask & (bit - 1));
+			if ((mChildMask & bit) != 0) {
+				return mChildren[index];
 			}
 
-			return in;
+			INode node = new INode(this, Character.toUpperCase(ch));
+			INode[] children = new INode[mChildren.length + 1];
+			System.arraycopy(mChildren, 0, children, 0, index);
+			System.arraycopy(mChildren, index, children, index + 1,
+					mChildren.length - index);
+			children[index] = node;
+
+			mChildren = children;
+			mChildMask |= bit;
+
+			return node;
+		}
+
+		// Creates all children at once, for when they're known up front
+		void createChildren(int mask)
+		{
+			mChildMask = mask;
+			mChildren = new INode[Integer.bitCount(mask)];
+			int i = 0;
+			for (int bits = mask; bits != 0; bits &= bits - 1) {
+				mChildren[i++] = new INode(this,
+						(char) ('A' + Integer.numberOfTrailingZeros(bits)));
+			}
 		}
 
 		INode next(char ch)
 		{
-			return (mNodes == null)
-					? null : mNodes.get(Character.toUpperCase(ch));
+			int bit = Keyboard.bit(ch);
+			return ((mChildMask & bit) == 0)
+					? null : mChildren[Integer.bitCount(mChildMask & (bit - 1))];
+		}
+
+		int childCount()
+		{
+			return mChildren.length;
+		}
+
+		INode child(int index)
+		{
+			return mChildren[index];
+		}
+
+		char letter()
+		{
+			return mChar;
+		}
+
+		int childMask()
+		{
+			return mChildMask;
+		}
+
+		void markTerminal()
+		{
+			mEnd = true;
+		}
+
+		int wordId()
+		{
+			return mWordId;
+		}
+
+		void setWordId(int wordId)
+		{
+			mWordId = wordId;
+		}
+
+		int[] topK()
+		{
+			return mTopK;
+		}
+
+		void setTopK(int[] topK)
+		{
+			mTopK = topK;
 		}
 
 		boolean terminal()
 		{
 			return mEnd;
 		}
+
+		String word()
+		{
+			StringBuilder sb = new StringBuilder();
+			for (INode node = this; node.mParent != null; node = node.mParent) {
+				sb.append(node.mChar);
+			}
+
+			return sb.reverse().toString();
+		}
 	}
 }
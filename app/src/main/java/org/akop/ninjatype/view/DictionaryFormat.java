@@ -0,0 +1,210 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+
+// Compressed word list. Layout:
+//
+//   int   magic
+//   short version
+//   int   word count
+//   int   payload length (inflated)
+//   int   payload CRC32 (inflated)
+//   ...   deflated payload
+//
+// Each word in the payload is front-coded against the previous one: the
+// length of the shared prefix, the length of the remaining suffix, then
+// the suffix characters - all as unsigned varints
+class DictionaryFormat
+{
+	static final int MAGIC = 0x4e4a5754; // "NJWT"
+	static final int VERSION = 1;
+
+	interface Sink
+	{
+		// chars[0..shared) are unchanged from the previous word
+		void onWord(char[] chars, int shared, int length)
+				throws IOException;
+	}
+
+	static boolean isCompressed(int magic)
+	{
+		return magic == MAGIC;
+	}
+
+	static int read(InputStream inputStream, Sink sink)
+			throws IOException
+	{
+		DataInputStream in = new DataInputStream(inputStream);
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a compressed dictionary");
+		}
+		int version = in.readUnsignedShort();
+		if (version != VERSION) {
+			throw new IOException("Unsupported dictionary version " + version);
+		}
+
+		int wordCount = in.readInt();
+		int payloadLength = in.readInt();
+		long expectedCrc = in.readInt() & 0xffffffffL;
+
+		Reader reader = new Reader(new InflaterInputStream(in));
+		char[] chars = new char[64];
+		int previousLength = 0;
+		for (int i = 0; i < wordCount; i++) {
+			int shared = reader.readVarInt();
+			int suffix = reader.readVarInt();
+			int length = shared + suffix;
+			if (shared > previousLength || length < shared) {
+				throw new IOException("Corrupt dictionary");
+			}
+			if (length > chars.length) {
+				char[] grown = new char[Math.max(length, chars.length * 2)];
+				System.arraycopy(chars, 0, grown, 0, shared);
+				chars = grown;
+			}
+			for (int j = shared; j < length; j++) {
+				chars[j] = (char) reader.readVarInt();
+			}
+
+			sink.onWord(chars, shared, length);
+			previousLength = length;
+		}
+
+		if (reader.read() != -1 || reader.mTotal != payloadLength
+				|| reader.mCrc.getValue() != expectedCrc) {
+			throw new IOException("Dictionary checksum mismatch");
+		}
+
+		return wordCount;
+	}
+
+	static void write(Iterable<String> words, OutputStream outputStream)
+			throws IOException
+	{
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		String previous = "";
+		int wordCount = 0;
+
+		for (String word: words) {
+			int shared = 0;
+			int max = Math.min(previous.length(), word.length());
+			while (shared < max && previous.charAt(shared) == word.charAt(shared)) {
+				shared++;
+			}
+
+			writeVarInt(payload, shared);
+			writeVarInt(payload, word.length() - shared);
+			for (int i = shared; i < word.length(); i++) {
+				writeVarInt(payload, word.charAt(i));
+			}
+
+			previous = word;
+			wordCount++;
+		}
+
+		byte[] bytes = payload.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+
+		DataOutputStream out = new DataOutputStream(outputStream);
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeInt(wordCount);
+		out.writeInt(bytes.length);
+		out.writeInt((int) crc.getValue());
+
+		DeflaterOutputStream deflater = new DeflaterOutputStream(out,
+				new Deflater(Deflater.BEST_COMPRESSION));
+		deflater.write(bytes);
+		deflater.finish();
+		out.flush();
+	}
+
+	private static void writeVarInt(OutputStream out, int value)
+			throws IOException
+	{
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	// Buffers the inflated stream ourselves, so that the checksum is
+	// updated a block at a time rather than a byte at a time
+	private static class Reader
+	{
+		final InputStream mIn;
+		final CRC32 mCrc;
+		final byte[] mBuffer;
+		int mPos;
+		int mLimit;
+		int mTotal;
+
+		Reader(InputStream in)
+		{
+			mIn = in;
+			mCrc = new CRC32();
+			mBuffer = new byte[8192];
+		}
+
+		int read()
+				throws IOException
+		{
+			if (mPos >= mLimit) {
+				int n = mIn.read(mBuffer, 0, mBuffer.length);
+				if (n <= 0) {
+					return -1;
+				}
+				mCrc.update(mBuffer, 0, n);
+				mTotal += n;
+				mPos = 0;
+				mLimit = n;
+			}
+
+			return mBuffer[mPos++] & 0xff;
+		}
+
+		int readVarInt()
+				throws IOException
+		{
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				int b = read();
+				if (b < 0) {
+					throw new IOException("Unexpected end of dictionary");
+				}
+				value |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+
+			throw new IOException("Corrupt dictionary");
+		}
+	}
+}
@@ -0,0 +1,243 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+// Process-wide, reference-counted dictionaries, keyed by resource id. All
+// methods must be called on the main thread
+public final class DictionaryRegistry
+{
+	private static final String LOG_TAG = DictionaryRegistry.class.getSimpleName();
+
+	private static final int MAX_LOADER_THREADS = 2;
+
+	// How long an unreferenced dictionary is kept around, so that views
+	// recreated on configuration change can pick it back up
+	private static final long RETAIN_MS = 10000;
+
+	private static final SparseArray<Entry> sEntries = new SparseArray<>();
+	private static Handler sHandler = new Handler(Looper.getMainLooper());
+	private static final ThreadPoolExecutor sExecutor;
+
+	static {
+		sExecutor = new ThreadPoolExecutor(MAX_LOADER_THREADS, MAX_LOADER_THREADS,
+				30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory()
+				{
+					@Override
+					public Thread newThread(final Runnable r)
+					{
+						return new Thread(new Runnable()
+						{
+							@Override
+							public void run()
+							{
+								Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+								r.run();
+							}
+						}, "DictionaryLoader");
+					}
+				});
+		sExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	private DictionaryRegistry()
+	{
+	}
+
+	public static Dictionary acquire(Context context, final int resourceId,
+			Dictionary.OnStatusChangeListener l)
+	{
+		Entry entry = sEntries.get(resourceId);
+		if (entry == null) {
+			sEntries.put(resourceId, entry = new Entry(resourceId));
+		}
+		if (!entry.mLoaded && entry.mLoad == null) {
+			// New, or the last attempt failed
+			entry.load(context.getApplicationContext());
+		}
+
+		sHandler.removeCallbacks(entry.mEvict);
+		entry.mRefs++;
+
+		if (l != null) {
+			if (entry.mLoaded) {
+				l.onDictionaryReady();
+			} else {
+				entry.mListeners.add(l);
+				l.onDictionaryLoading();
+			}
+		}
+
+		return entry.mDictionary;
+	}
+
+	public static void release(int resourceId, Dictionary.OnStatusChangeListener l)
+	{
+		Entry entry = sEntries.get(resourceId);
+		if (entry == null) {
+			return;
+		}
+
+		entry.mListeners.remove(l);
+		if (--entry.mRefs <= 0) {
+			sHandler.postDelayed(entry.mEvict, RETAIN_MS);
+		}
+	}
+
+	// Forgets every dictionary, abandoning any loads still running, and
+	// rebinds to the current main looper. Only meant for tests, which
+	// would otherwise see each other's dictionaries and pending callbacks
+	public static void reset()
+	{
+		for (int i = 0, n = sEntries.size(); i < n; i++) {
+			Entry entry = sEntries.valueAt(i);
+			entry.mListeners.clear();
+			if (entry.mLoad != null) {
+				entry.mLoad.cancel(true);
+				entry.mLoad = null;
+			}
+		}
+		sEntries.clear();
+
+		sHandler.removeCallbacksAndMessages(null);
+		sHandler = new Handler(Looper.getMainLooper());
+	}
+
+	private static class Entry
+	{
+		final int mResourceId;
+		final Dictionary mDictionary;
+		final List<Dictionary.OnStatusChangeListener> mListeners;
+		final Runnable mEvict;
+		Future<?> mLoad;
+		boolean mLoaded;
+		int mRefs;
+
+		Entry(int resourceId)
+		{
+			mResourceId = resourceId;
+			mDictionary = new Dictionary();
+			mListeners = new ArrayList<>();
+			mEvict = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					evict();
+				}
+			};
+		}
+
+		void load(final Context appContext)
+		{
+			mLoad = sExecutor.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					boolean loaded;
+					try {
+						loaded = mDictionary.load(appContext, mResourceId);
+					} catch (Throwable e) {
+						// The Future would keep it to itself, and the entry
+						// would never stop loading
+						Log.e(LOG_TAG, "Error loading dictionary", e);
+						loaded = false;
+					}
+
+					if (!loaded) {
+						// Cancelled loads have already been evicted
+						if (!Thread.currentThread().isInterrupted()) {
+							sHandler.post(new Runnable()
+							{
+								@Override
+								public void run()
+								{
+									failed();
+								}
+							});
+						}
+						return;
+					}
+
+					sHandler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							loaded();
+						}
+					});
+
+					mDictionary.writeSnapshot();
+				}
+			});
+		}
+
+		void loaded()
+		{
+			mLoad = null;
+			mLoaded = true;
+
+			for (Dictionary.OnStatusChangeListener l: mListeners) {
+				l.onDictionaryReady();
+			}
+			mListeners.clear();
+		}
+
+		// Left in place, so that the next acquire tries again
+		void failed()
+		{
+			mLoad = null;
+
+			for (Dictionary.OnStatusChangeListener l: mListeners) {
+				l.onDictionaryFailed();
+			}
+			mListeners.clear();
+		}
+
+		void evict()
+		{
+			if (mRefs > 0) {
+				return;
+			}
+
+			// Abandon the load if nobody's waiting for it
+			if (mLoad != null) {
+				mLoad.cancel(true);
+				mLoad = null;
+			}
+			if (sEntries.get(mResourceId) == this) {
+				sEntries.remove(mResourceId);
+			}
+		}
+	}
+}
@@ -0,0 +1,371 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+
+// Serialized copy of a built and indexed trie, kept in the app's files
+// directory so that later starts don't need to parse the dictionary
+// resource. A snapshot is only used if it was written for the same
+// resource, app version and resource contents.
+//
+// Nodes are written breadth-first, each as (child mask << 1 | terminal).
+// That's the order word ids are assigned in, so they aren't stored. Top-K
+// lists follow, bottom-up: a list is its node's own id, if terminal, then
+// the best of its children's, so only which child each of the rest came
+// from is stored, a byte each. Lists that can be inferred - a single
+// child's - aren't stored at all. Surface forms come last, as (word id,
+// form count, forms)
+class DictionarySnapshot
+{
+	private static final String LOG_TAG = DictionarySnapshot.class.getSimpleName();
+
+	private static final int MAGIC = 0x4e4a534e; // "NJSN"
+	private static final int VERSION = 3;
+
+	private final Context mContext;
+	private final int mResourceId;
+	private final File mFile;
+	private int mAppVersion;
+	private long mAppUpdated;
+	private int mContentHash;
+
+	DictionarySnapshot(Context context, int resourceId)
+	{
+		mContext = context;
+		mResourceId = resourceId;
+		mFile = new File(context.getFilesDir(), "dictionary-" + resourceId + ".snapshot");
+	}
+
+	File file()
+	{
+		return mFile;
+	}
+
+	// Returns null if there's no usable snapshot. Terminal nodes are added
+	// to words, in word id order, and surface forms, if any, to surfaces
+	Dictionary.INode read(List<Dictionary.INode> words,
+			SparseArray<String[]> surfaces)
+	{
+		try {
+			computeKey();
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "Error hashing dictionary resource", e);
+			return null;
+		}
+
+		if (!mFile.exists()) {
+			return null;
+		}
+
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(mFile);
+			FileChannel channel = in.getChannel();
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+
+			if (buf.getInt() != MAGIC
+					|| buf.getInt() != VERSION
+					|| buf.getInt() != mResourceId
+					|| buf.getInt() != mAppVersion
+					|| buf.getLong() != mAppUpdated
+					|| buf.getInt() != mContentHash) {
+				Log.v(LOG_TAG, "Snapshot is stale");
+				return null;
+			}
+
+			Dictionary.INode[] nodes = readNodes(buf, words);
+			readTopK(buf, nodes);
+			readSurfaces(buf, surfaces);
+			if (buf.hasRemaining()) {
+				throw new IOException("Trailing data in snapshot");
+			}
+
+			return nodes[0];
+		} catch (Exception e) {
+			// Being cancelled doesn't mean the snapshot is bad
+			if (!Thread.currentThread().isInterrupted()) {
+				Log.w(LOG_TAG, "Error reading snapshot", e);
+				mFile.delete();
+			}
+		} finally {
+			if (in != null) {
+				try { in.close(); }
+				catch (IOException e) { /* */ }
+			}
+		}
+
+		return null;
+	}
+
+	void write(Dictionary.INode root, SparseArray<String[]> surfaces)
+	{
+		File temp = new File(mFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		boolean written = false;
+
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp), 65536));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(mResourceId);
+			out.writeInt(mAppVersion);
+			out.writeLong(mAppUpdated);
+			out.writeInt(mContentHash);
+			Dictionary.INode[] nodes = breadthFirst(root);
+			writeNodes(out, nodes);
+			writeTopK(out, nodes);
+			writeSurfaces(out, surfaces);
+			out.close();
+			out = null;
+
+			// Rename, so that a partially-written snapshot is never read
+			written = temp.renameTo(mFile);
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "Error writing snapshot", e);
+		} finally {
+			if (out != null) {
+				try { out.close(); }
+				catch (IOException e) { /* */ }
+			}
+			if (!written) {
+				temp.delete();
+			}
+		}
+	}
+
+	private void computeKey()
+			throws IOException
+	{
+		try {
+			PackageInfo info = mContext.getPackageManager()
+					.getPackageInfo(mContext.getPackageName(), 0);
+			mAppVersion = info.versionCode;
+			mAppUpdated = info.lastUpdateTime;
+		} catch (PackageManager.NameNotFoundException e) {
+			throw new IOException(e);
+		}
+
+		CRC32 crc = new CRC32();
+		InputStream in = mContext.getResources().openRawResource(mResourceId);
+		try {
+			byte[] buf = new byte[65536];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				crc.update(buf, 0, n);
+			}
+		} finally {
+			try { in.close(); }
+			catch (IOException e) { /* */ }
+		}
+
+		mContentHash = (int) crc.getValue();
+	}
+
+	private static Dictionary.INode[] breadthFirst(Dictionary.INode root)
+	{
+		List<Dictionary.INode> nodes = new ArrayList<>();
+		nodes.add(root);
+		for (int i = 0; i < nodes.size(); i++) {
+			Dictionary.INode node = nodes.get(i);
+			for (int j = 0, n = node.childCount(); j < n; j++) {
+				nodes.add(node.child(j));
+			}
+		}
+
+		return nodes.toArray(new Dictionary.INode[nodes.size()]);
+	}
+
+	private static Dictionary.INode[] readNodes(ByteBuffer buf,
+			List<Dictionary.INode> words)
+	{
+		Dictionary.INode[] nodes = new Dictionary.INode[readVarInt(buf)];
+		nodes[0] = new Dictionary.INode(null, '\0');
+
+		// Children are appended as their parents are read
+		int count = 1;
+		for (int i = 0; i < nodes.length; i++) {
+			Dictionary.INode node = nodes[i];
+			int header = readVarInt(buf);
+			if ((header & 1) != 0) {
+				node.markTerminal();
+				node.setWordId(words.size());
+				words.add(node);
+			}
+			node.createChildren(header >>> 1);
+			for (int j = 0, n = node.childCount(); j < n; j++) {
+				nodes[count++] = node.child(j);
+			}
+		}
+
+		return nodes;
+	}
+
+	private static void writeNodes(DataOutputStream out, Dictionary.INode[] nodes)
+			throws IOException
+	{
+		writeVarInt(out, nodes.length);
+		for (Dictionary.INode node: nodes) {
+			writeVarInt(out, (node.childMask() << 1) | (node.terminal() ? 1 : 0));
+		}
+	}
+
+	// Mirrors Dictionary.indexWords, with the merge decisions read back
+	// rather than made
+	private static void readTopK(ByteBuffer buf, Dictionary.INode[] nodes)
+	{
+		int[] taken = new int[Keyboard.ALPHABET_SIZE];
+		for (int i = nodes.length - 1; i >= 0; i--) {
+			Dictionary.INode node = nodes[i];
+			int children = node.childCount();
+			if (!node.terminal() && children == 1) {
+				node.setTopK(node.child(0).topK());
+				continue;
+			}
+
+			int own = node.terminal() ? 1 : 0;
+			int available = own;
+			for (int j = 0; j < children; j++) {
+				available += node.child(j).topK().length;
+			}
+
+			int[] topK = new int[Math.min(Dictionary.TOP_K, available)];
+			if (own != 0) {
+				topK[0] = node.wordId();
+			}
+			if (children == 1) {
+				int[] src = node.child(0).topK();
+				System.arraycopy(src, 0, topK, own, topK.length - own);
+			} else if (children > 1) {
+				Arrays.fill(taken, 0, children, 0);
+				for (int k = own; k < topK.length; k++) {
+					int child = buf.get();
+					topK[k] = node.child(child).topK()[taken[child]++];
+				}
+			}
+			node.setTopK(topK);
+		}
+	}
+
+	private static void writeTopK(DataOutputStream out, Dictionary.INode[] nodes)
+			throws IOException
+	{
+		int[] taken = new int[Keyboard.ALPHABET_SIZE];
+		for (int i = nodes.length - 1; i >= 0; i--) {
+			Dictionary.INode node = nodes[i];
+			int children = node.childCount();
+			if (children < 2) {
+				continue;
+			}
+
+			// The rest of the list is in ascending order, so each entry is
+			// at the head of what's left of one of the children's lists
+			int[] topK = node.topK();
+			Arrays.fill(taken, 0, children, 0);
+			for (int k = node.terminal() ? 1 : 0; k < topK.length; k++) {
+				int child = 0;
+				while (!isNext(node.child(child).topK(), taken[child], topK[k])) {
+					child++;
+				}
+				taken[child]++;
+				out.write(child);
+			}
+		}
+	}
+
+	private static boolean isNext(int[] topK, int taken, int wordId)
+	{
+		return taken < topK.length && topK[taken] == wordId;
+	}
+
+	private static void readSurfaces(ByteBuffer buf, SparseArray<String[]> surfaces)
+	{
+		for (int i = readVarInt(buf); i > 0; i--) {
+			int wordId = readVarInt(buf);
+			String[] forms = new String[readVarInt(buf)];
+			for (int j = 0; j < forms.length; j++) {
+				char[] chars = new char[readVarInt(buf)];
+				for (int k = 0; k < chars.length; k++) {
+					chars[k] = (char) readVarInt(buf);
+				}
+				forms[j] = new String(chars);
+			}
+			surfaces.put(wordId, forms);
+		}
+	}
+
+	private static void writeSurfaces(DataOutputStream out,
+			SparseArray<String[]> surfaces)
+			throws IOException
+	{
+		writeVarInt(out, surfaces.size());
+		for (int i = 0, n = surfaces.size(); i < n; i++) {
+			String[] forms = surfaces.valueAt(i);
+			writeVarInt(out, surfaces.keyAt(i));
+			writeVarInt(out, forms.length);
+			for (String form: forms) {
+				writeVarInt(out, form.length());
+				for (int k = 0; k < form.length(); k++) {
+					writeVarInt(out, form.charAt(k));
+				}
+			}
+		}
+	}
+
+	private static int readVarInt(ByteBuffer buf)
+	{
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = buf.get() & 0xff;
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return value;
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value)
+			throws IOException
+	{
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
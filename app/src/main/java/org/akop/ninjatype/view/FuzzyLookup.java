@@ -0,0 +1,162 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+// Bounded edit-distance search over the trie. The query is compiled into a
+// bit-parallel Levenshtein automaton (one bit vector per allowed error
+// count, bit i set meaning "the first i chars of the query are matched"),
+// which is stepped in lockstep with the trie walk. A subtree is abandoned
+// as soon as no state survives within the current distance bound
+class FuzzyLookup
+{
+	static final int MAX_QUERY_LENGTH = 63;
+
+	static class Result
+	{
+		final Dictionary.INode mNode;
+		final String mWord;
+		final int mCost;
+
+		Result(Dictionary.INode node, String word, int cost)
+		{
+			mNode = node;
+			mWord = word;
+			mCost = cost;
+		}
+
+		@Override
+		public String toString()
+		{
+			return mWord + " (" + mCost + ")";
+		}
+	}
+
+	private final String mQuery;
+	private final long[] mAlphaMasks;
+	private final long mAccept;
+	private final long mAllStates;
+	private final int mLimit;
+	private final long[][] mStates;
+	private final char[] mPath;
+	private final List<Result> mResults;
+	private int mBound;
+
+	FuzzyLookup(String query, int maxDistance, int limit)
+	{
+		mQuery = query.toUpperCase(Locale.ROOT);
+		if (mQuery.length() > MAX_QUERY_LENGTH) {
+			throw new IllegalArgumentException("Query too long");
+		}
+
+		int m = mQuery.length();
+		mAccept = 1L << m;
+		mAllStates = (m == MAX_QUERY_LENGTH) ? -1L : (mAccept << 1) - 1;
+		mAlphaMasks = new long[Keyboard.ALPHABET_SIZE];
+		for (int i = 0; i < m; i++) {
+			char ch = mQuery.charAt(i);
+			if (ch >= 'A' && ch <= 'Z') {
+				mAlphaMasks[ch - 'A'] |= 1L << i;
+			}
+		}
+
+		mBound = maxDistance;
+		mLimit = limit;
+		mResults = new ArrayList<>(limit + 1);
+
+		// No word longer than the query plus the number of allowed
+		// insertions can be accepted
+		int maxDepth = m + maxDistance + 1;
+		mStates = new long[maxDepth + 1][maxDistance + 1];
+		mPath = new char[maxDepth];
+
+		// Before consuming anything, up to d leading chars of the query
+		// can be deleted with d errors
+		for (int d = 0; d <= maxDistance; d++) {
+			mStates[0][d] = (1L << (d + 1)) - 1 & mAllStates;
+		}
+	}
+
+	List<Result> search(Dictionary.INode root)
+	{
+		walk(root, 0);
+		return mResults;
+	}
+
+	private void walk(Dictionary.INode node, int depth)
+	{
+		if (depth + 1 >= mStates.length) {
+			return;
+		}
+
+		long[] prev = mStates[depth];
+		long[] next = mStates[depth + 1];
+
+		for (int i = 0, n = node.childCount(); i < n; i++) {
+			Dictionary.INode child = node.child(i);
+			char ch = child.letter();
+			long mask = mAlphaMasks[ch - 'A'];
+
+			next[0] = (prev[0] & mask) << 1 & mAllStates;
+			for (int d = 1; d <= mBound; d++) {
+				next[d] = ((prev[d] & mask) << 1 // match
+						| prev[d - 1]               // insertion
+						| prev[d - 1] << 1          // substitution
+						| next[d - 1] << 1)         // deletion
+						& mAllStates;
+			}
+
+			if (next[mBound] == 0) {
+				continue;
+			}
+
+			mPath[depth] = ch;
+
+			if (child.terminal()) {
+				for (int d = 0; d <= mBound; d++) {
+					if ((next[d] & mAccept) != 0) {
+						offer(child, new String(mPath, 0, depth + 1), d);
+						break;
+					}
+				}
+			}
+
+			walk(child, depth + 1);
+		}
+	}
+
+	private void offer(Dictionary.INode node, String word, int cost)
+	{
+		int i = mResults.size();
+		while (i > 0 && mResults.get(i - 1).mCost > cost) {
+			i--;
+		}
+		mResults.add(i, new Result(node, word, cost));
+
+		if (mResults.size() > mLimit) {
+			mResults.remove(mResults.size() - 1);
+		}
+
+		// Once the list is full, nothing costlier than its worst entry can
+		// make it in - tighten the bound to prune more aggressively
+		if (mResults.size() == mLimit) {
+			mBound = Math.min(mBound, mResults.get(mLimit - 1).mCost);
+		}
+	}
+}
@@ -0,0 +1,315 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import java.util.Arrays;
+
+
+// Decoder hypotheses, held in parallel arrays rather than as objects. Each
+// hypothesis is a path through the trie: the node it reached, the
+// hypothesis it extends (its parent) and the char it added. Words are
+// spelled out by following parents, and deduplicated by a hash chained
+// through the same arrays. Hypotheses are appended in key order, so the
+// ones ending at a given key are a contiguous group, found by offset.
+//
+// Pruned hypotheses stay in place, since later ones may still refer to
+// them as parents, but are otherwise ignored
+class HypothesisStore
+{
+	static final int NONE = -1;
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private int mSize;
+	private Dictionary.INode[] mNodes;
+	private int[] mParents;
+	private char[] mChars;
+	private boolean[] mSpaced;
+	private int[] mLengths;
+	private int[] mHashes;
+	private int[] mHits;
+	private float[] mStartingScores;
+	private float[] mKeyScores;
+	private boolean[] mPruned;
+
+	private int[] mBuckets;
+	private int[] mNextInBucket;
+
+	// mGroupStarts[k] is where the hypotheses ending at key k begin
+	private int[] mGroupStarts;
+	private int mGroupCount;
+
+	private float[] mScratch;
+	private final char[] mWordBuf;
+
+	HypothesisStore()
+	{
+		allocate(INITIAL_CAPACITY);
+		mBuckets = new int[INITIAL_CAPACITY];
+		mGroupStarts = new int[32];
+		mScratch = new float[INITIAL_CAPACITY];
+		mWordBuf = new char[64];
+
+		clear();
+	}
+
+	private void allocate(int capacity)
+	{
+		mNodes = new Dictionary.INode[capacity];
+		mParents = new int[capacity];
+		mChars = new char[capacity];
+		mSpaced = new boolean[capacity];
+		mLengths = new int[capacity];
+		mHashes = new int[capacity];
+		mHits = new int[capacity];
+		mStartingScores = new float[capacity];
+		mKeyScores = new float[capacity];
+		mPruned = new boolean[capacity];
+		mNextInBucket = new int[capacity];
+	}
+
+	private void grow()
+	{
+		int capacity = mNodes.length * 2;
+		mNodes = Arrays.copyOf(mNodes, capacity);
+		mParents = Arrays.copyOf(mParents, capacity);
+		mChars = Arrays.copyOf(mChars, capacity);
+		mSpaced = Arrays.copyOf(mSpaced, capacity);
+		mLengths = Arrays.copyOf(mLengths, capacity);
+		mHashes = Arrays.copyOf(mHashes, capacity);
+		mHits = Arrays.copyOf(mHits, capacity);
+		mStartingScores = Arrays.copyOf(mStartingScores, capacity);
+		mKeyScores = Arrays.copyOf(mKeyScores, capacity);
+		mPruned = Arrays.copyOf(mPruned, capacity);
+		mNextInBucket = Arrays.copyOf(mNextInBucket, capacity);
+
+		// Keep the load factor at or below one
+		mBuckets = new int[capacity];
+		Arrays.fill(mBuckets, NONE);
+		for (int i = 0; i < mSize; i++) {
+			int bucket = mHashes[i] & (capacity - 1);
+			mNextInBucket[i] = mBuckets[bucket];
+			mBuckets[bucket] = i;
+		}
+	}
+
+	void clear()
+	{
+		// Nodes are dropped so the trie they belong to can be collected
+		Arrays.fill(mNodes, 0, mSize, null);
+		Arrays.fill(mBuckets, NONE);
+		mSize = 0;
+		mGroupCount = 0;
+	}
+
+	int size()
+	{
+		return mSize;
+	}
+
+	// Marks the start of the hypotheses ending at keyIndex. Keys must be
+	// started in increasing order
+	void startGroup(int keyIndex)
+	{
+		if (keyIndex >= mGroupStarts.length) {
+			mGroupStarts = Arrays.copyOf(mGroupStarts,
+					Math.max(keyIndex + 1, mGroupStarts.length * 2));
+		}
+		while (mGroupCount <= keyIndex) {
+			mGroupStarts[mGroupCount++] = mSize;
+		}
+	}
+
+	int groupStart(int keyIndex)
+	{
+		return (keyIndex < mGroupCount) ? mGroupStarts[keyIndex] : mSize;
+	}
+
+	int groupEnd(int keyIndex)
+	{
+		return (keyIndex + 1 < mGroupCount) ? mGroupStarts[keyIndex + 1] : mSize;
+	}
+
+	// Returns the index of the hypothesis spelling parent's word (plus a
+	// space, if spaced) followed by ch - either an existing one, or one
+	// added with the given node and scoring
+	int add(int parent, boolean spaced, char ch, Dictionary.INode node,
+			int hits, float startingScore)
+	{
+		int hash = (parent == NONE) ? 0 : mHashes[parent];
+		int length = (parent == NONE) ? 0 : mLengths[parent];
+		if (spaced) {
+			hash = hash * 31 + ' ';
+			length++;
+		}
+		hash = hash * 31 + ch;
+		length++;
+
+		for (int i = mBuckets[hash & (mBuckets.length - 1)]; i != NONE;
+				i = mNextInBucket[i]) {
+			if (!mPruned[i] && mHashes[i] == hash && mLengths[i] == length
+					&& mChars[i] == ch && mSpaced[i] == spaced
+					&& sameWord(mParents[i], parent)) {
+				return i;
+			}
+		}
+
+		if (mSize == mNodes.length) {
+			grow();
+		}
+
+		int i = mSize++;
+		mNodes[i] = node;
+		mParents[i] = parent;
+		mChars[i] = ch;
+		mSpaced[i] = spaced;
+		mLengths[i] = length;
+		mHashes[i] = hash;
+		mHits[i] = hits;
+		mStartingScores[i] = startingScore;
+		mKeyScores[i] = 0;
+		mPruned[i] = false;
+
+		int bucket = hash & (mBuckets.length - 1);
+		mNextInBucket[i] = mBuckets[bucket];
+		mBuckets[bucket] = i;
+
+		return i;
+	}
+
+	// Both hypotheses are assumed to spell words of the same length
+	private boolean sameWord(int a, int b)
+	{
+		while (a != b) {
+			if (a == NONE || b == NONE
+					|| mChars[a] != mChars[b] || mSpaced[a] != mSpaced[b]) {
+				return false;
+			}
+			a = mParents[a];
+			b = mParents[b];
+		}
+
+		return true;
+	}
+
+	Dictionary.INode node(int i)
+	{
+		return mNodes[i];
+	}
+
+	int hits(int i)
+	{
+		return mHits[i];
+	}
+
+	boolean isPruned(int i)
+	{
+		return mPruned[i];
+	}
+
+	// The starting score, plus what was scored for the key the hypothesis
+	// ends at
+	float score(int i)
+	{
+		return mStartingScores[i] + mKeyScores[i];
+	}
+
+	// Sets the key score of every hypothesis ending at keyIndex, unless it
+	// already has a higher one
+	void updateKeyScores(int keyIndex, float keyScore)
+	{
+		float[] keyScores = mKeyScores;
+		for (int i = groupStart(keyIndex), n = groupEnd(keyIndex); i < n; i++) {
+			if (keyScores[i] < keyScore) {
+				keyScores[i] = keyScore;
+			}
+		}
+	}
+
+	// Keeps the width best-scoring hypotheses from start onwards. Ties go
+	// to the earlier one
+	void prune(int start, int width)
+	{
+		int count = mSize - start;
+		if (count <= width) {
+			return;
+		}
+
+		if (mScratch.length < count) {
+			mScratch = new float[Math.max(count, mScratch.length * 2)];
+		}
+		for (int i = 0; i < count; i++) {
+			mScratch[i] = score(start + i);
+		}
+		Arrays.sort(mScratch, 0, count);
+
+		// Everything above the cutoff is kept, and as many at the cutoff
+		// as there's room for
+		float cutoff = mScratch[count - width];
+		int atCutoff = width;
+		for (int i = count - width; i < count; i++) {
+			if (mScratch[i] > cutoff) {
+				atCutoff--;
+			}
+		}
+		for (int i = start; i < mSize; i++) {
+			float score = score(i);
+			if (score < cutoff || (score == cutoff && atCutoff-- <= 0)) {
+				mPruned[i] = true;
+			}
+		}
+	}
+
+	// Writes the indices of the best-scoring hypotheses at terminal nodes,
+	// from start onwards, to best, best first. Returns how many were written
+	int best(int[] best, int start)
+	{
+		int count = 0;
+		for (int i = start; i < mSize; i++) {
+			if (mPruned[i] || !mNodes[i].terminal()) {
+				continue;
+			}
+
+			float score = score(i);
+			int j = Math.min(count, best.length - 1);
+			if (j == count || score > score(best[j])) {
+				while (j > 0 && score > score(best[j - 1])) {
+					best[j] = best[j - 1];
+					j--;
+				}
+				best[j] = i;
+				if (count < best.length) {
+					count++;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	String word(int i)
+	{
+		int length = mLengths[i];
+		char[] chars = (length <= mWordBuf.length) ? mWordBuf : new char[length];
+		for (int j = length; i != NONE; i = mParents[i]) {
+			chars[--j] = mChars[i];
+			if (mSpaced[i]) {
+				chars[--j] = ' ';
+			}
+		}
+
+		return new String(chars, 0, length);
+	}
+}
@@ -20,6 +20,8 @@ import java.util.List;
 
 class Keyboard
 {
+	static final int ALPHABET_SIZE = 26;
+
 	private final List<Row> mRows;
 
 	Keyboard()
@@ -38,6 +40,45 @@ class Keyboard
 		return row;
 	}
 
+	void computeNeighbors()
+	{
+		List<Key> keys = new ArrayList<>();
+		for (Row row: mRows) {
+			keys.addAll(row.mKeys);
+		}
+
+		// Keys are neighbors if they're in the same or an adjacent row, and
+		// their centers are less than a key and a half apart horizontally.
+		// Penalty is the distance between centers, in key widths
+		for (Key key: keys) {
+			key.mNeighbors = bit(key.mChar);
+			key.mPenalties = new float[ALPHABET_SIZE];
+
+			float width = key.mEnd - key.mStart;
+			float height = key.mRow.mEnd - key.mRow.mStart;
+			for (Key other: keys) {
+				int otherBit = bit(other.mChar);
+				if (other == key || otherBit == 0) {
+					continue;
+				}
+
+				float dx = Math.abs(other.centerX() - key.centerX());
+				float dy = Math.abs(other.centerY() - key.centerY());
+				if (dx < width * 1.5f && dy < height * 1.5f) {
+					key.mNeighbors |= otherBit;
+					key.mPenalties[Character.toUpperCase(other.mChar) - 'A']
+							= (float) Math.hypot(dx, dy) / width;
+				}
+			}
+		}
+	}
+
+	static int bit(char ch)
+	{
+		ch = Character.toUpperCase(ch);
+		return (ch >= 'A' && ch <= 'Z') ? 1 << (ch - 'A') : 0;
+	}
+
 	Key keyAt(float x, float y)
 	{
 		Row row = find(mRows, 0, mRows.size() - 1, y);
@@ -84,6 +125,8 @@ class Keyboard
 		private Row mRow;
 		char mChar;
 		String mLabel;
+		int mNeighbors;
+		float[] mPenalties;
 
 		Key(float start, float end, char ch, String label)
 		{
@@ -93,12 +136,19 @@ class Keyboard
 			mLabel = label;
 		}
 
-		float distanceFromCenter(float x, float y)
+		float centerX()
+		{
+			return (mStart + mEnd) * .5f;
+		}
+
+		float centerY()
 		{
-			float xc = (mStart + mEnd) * .5f;
-			float yc = (mRow.mStart + mRow.mEnd) * .5f;
+			return (mRow.mStart + mRow.mEnd) * .5f;
+		}
 
-			return (float) Math.hypot(x - xc, y - yc);
+		float distanceFromCenter(float x, float y)
+		{
+			return (float) Math.hypot(x - centerX(), y - centerY());
 		}
 
 		@Override
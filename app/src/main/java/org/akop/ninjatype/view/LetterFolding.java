@@ -0,0 +1,105 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import java.text.Normalizer;
+
+
+// Maps letters onto the key alphabet (A-Z): accents are dropped (e-acute
+// -> E), and letters that are spelled out with several keys are expanded
+// (sharp s -> SS, ae ligature -> AE). Covers Latin-1 and Latin
+// Extended-A/B
+final class LetterFolding
+{
+	// Letter with no equivalent on the keys
+	static final int UNREACHABLE = -1;
+
+	// Longest expansion of a single letter
+	static final int MAX_EXPANSION = 2;
+
+	private static final char TABLE_END = 0x0250;
+
+	// Letters that don't decompose into ASCII: sharp s, ligatures, and
+	// letters with strokes or bars
+	private static final String[] SPECIAL = {
+			"\u00df", "SS", "\u00c6", "AE", "\u00e6", "AE", "\u0152", "OE",
+			"\u0153", "OE", "\u00d8", "O", "\u00f8", "O", "\u0110", "D",
+			"\u0111", "D", "\u00d0", "D", "\u00f0", "D", "\u0141", "L",
+			"\u0142", "L", "\u00de", "TH", "\u00fe", "TH", "\u0126", "H",
+			"\u0127", "H", "\u0131", "I",
+	};
+
+	private static final String[] TABLE = new String[TABLE_END];
+
+	static {
+		for (int i = 0; i < SPECIAL.length; i += 2) {
+			TABLE[SPECIAL[i].charAt(0)] = SPECIAL[i + 1];
+		}
+
+		// Everything else: keep the ASCII letters of the compatibility
+		// decomposition (ij ligature -> IJ, l with middle dot -> L)
+		StringBuilder sb = new StringBuilder();
+		for (char ch = 0x00c0; ch < TABLE_END; ch++) {
+			if (TABLE[ch] != null || !Character.isLetter(ch)) {
+				continue;
+			}
+
+			sb.setLength(0);
+			String decomposed = Normalizer.normalize(String.valueOf(ch),
+					Normalizer.Form.NFKD);
+			for (int i = 0; i < decomposed.length(); i++) {
+				char d = decomposed.charAt(i);
+				if (d >= 'a' && d <= 'z') {
+					sb.append((char) (d - 'a' + 'A'));
+				} else if (d >= 'A' && d <= 'Z') {
+					sb.append(d);
+				}
+			}
+			if (sb.length() > 0) {
+				TABLE[ch] = sb.toString();
+			}
+		}
+	}
+
+	private LetterFolding()
+	{
+	}
+
+	// Writes the key symbols for ch to dest, starting at pos. Returns the
+	// number written (0 for anything that isn't a letter), or UNREACHABLE
+	static int fold(char ch, char[] dest, int pos)
+	{
+		if (ch >= 'A' && ch <= 'Z') {
+			dest[pos] = ch;
+			return 1;
+		} else if (ch >= 'a' && ch <= 'z') {
+			dest[pos] = (char) (ch - 'a' + 'A');
+			return 1;
+		} else if (ch < TABLE_END && TABLE[ch] != null) {
+			String folded = TABLE[ch];
+			folded.getChars(0, folded.length(), dest, pos);
+			return folded.length();
+		}
+
+		return Character.isLetter(ch) ? UNREACHABLE : 0;
+	}
+
+	// True if ch is spelled as its key symbol in lowercase. Words made
+	// up of nothing else don't need their spelling kept
+	static boolean isPlain(char ch)
+	{
+		return ch >= 'a' && ch <= 'z';
+	}
+}
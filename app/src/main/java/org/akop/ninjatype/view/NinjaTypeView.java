@@ -30,19 +30,17 @@ import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.WindowManager;
 import android.widget.TextView;
 
 import org.akop.ninjatype.R;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
 
 
 public class NinjaTypeView
@@ -56,7 +54,16 @@ public class NinjaTypeView
 		void onNoMatches();
 	}
 
+	// Called once the view can decode swipes: it's been laid out, and its
+	// dictionary is loaded
+	public interface OnReadyListener
+	{
+		void onReady();
+	}
+
 	private static final int MAX_CANDIDATES = 10;
+	private static final int CACHE_CAPACITY = 64;
+	private static final int MAX_CORRECTION_DISTANCE = 2;
 
 	private static final String[][] KEYS = new String[][] {
 			{ "Q","W","E","R","T","Y","U","I","O","P" },
@@ -79,6 +86,7 @@ public class NinjaTypeView
 	private float mKeyVpadding;
 	private float mKeyHeight;
 	private int mLongestKeySpan;
+	private boolean mPhraseMode;
 	private Drawable mKeyboardDrawable;
 	private Drawable mSwipyDrawable;
 	private Canvas mSwipyCanvas;
@@ -88,19 +96,46 @@ public class NinjaTypeView
 	private final Paint mSwipyPaint;
 
 	private final Keyboard mKeyboard;
-	private final Dictionary mDictionary;
+	private final int mDictionaryResId;
+	private Dictionary mDictionary;
+	private final CandidateCache mCandidateCache;
+	private DecodeBudget mDecodeBudget;
 
-	private static final Comparator<Match> SCORE_COMPARATOR
-			= new Comparator<Match>()
+	private final Dictionary.OnStatusChangeListener mDictionaryStatusForwarder
+			= new Dictionary.OnStatusChangeListener()
 	{
 		@Override
-		public int compare(Match o1, Match o2)
+		public void onDictionaryLoading()
+		{
+			mDictionaryReady = false;
+			if (mDictionaryStatusListener != null) {
+				mDictionaryStatusListener.onDictionaryLoading();
+			}
+		}
+
+		@Override
+		public void onDictionaryReady()
 		{
-			return Float.compare(o2.score(), o1.score());
+			mDictionaryReady = true;
+			if (mDictionaryStatusListener != null) {
+				mDictionaryStatusListener.onDictionaryReady();
+			}
+			notifyIfReady();
+		}
+
+		@Override
+		public void onDictionaryFailed()
+		{
+			if (mDictionaryStatusListener != null) {
+				mDictionaryStatusListener.onDictionaryFailed();
+			}
 		}
 	};
 
 	private OnWordSwipedListener mOnWordSwipedListener;
+	private OnReadyListener mOnReadyListener;
+	private boolean mDictionaryReady;
+	private Dictionary.OnStatusChangeListener mDictionaryStatusListener;
 
 	public NinjaTypeView(Context context, AttributeSet attrs)
 	{
@@ -124,6 +159,7 @@ public class NinjaTypeView
 		int dictionaryResId = R.raw.default_dictionary;
 		int outlineColor = OUTLINE_COLOR;
 		float outlineThickness = OUTLINE_THICKNESS * dm.density;
+		boolean phraseMode = false;
 
 		if (attrs != null) {
 			Resources.Theme theme = context.getTheme();
@@ -138,6 +174,7 @@ public class NinjaTypeView
 			dictionaryResId = a.getResourceId(R.styleable.NinjaTypeView_dictionary, dictionaryResId);
 			outlineColor = a.getColor(R.styleable.NinjaTypeView_outlineColor, outlineColor);
 			outlineThickness = a.getDimensionPixelSize(R.styleable.NinjaTypeView_outlineThickness, (int) outlineThickness);
+			phraseMode = a.getBoolean(R.styleable.NinjaTypeView_phraseMode, phraseMode);
 
 			a.recycle();
 		}
@@ -157,13 +194,44 @@ public class NinjaTypeView
 		mSwipyPaint.setStyle(Paint.Style.STROKE);
 
 		mKeyboard = new Keyboard();
+		mPhraseMode = phraseMode;
+		mDictionaryResId = dictionaryResId;
 		mDictionary = new Dictionary();
+		mDictionaryReady = (dictionaryResId == 0);
+		mCandidateCache = new CandidateCache(CACHE_CAPACITY);
 
-		if (dictionaryResId != 0) {
-			mDictionary.readFromResource(getContext(), dictionaryResId);
+		initKeyboard();
+	}
+
+	@Override
+	protected void onAttachedToWindow()
+	{
+		super.onAttachedToWindow();
+
+		WindowManager wm = (WindowManager) getContext()
+				.getSystemService(Context.WINDOW_SERVICE);
+		mDecodeBudget.setRefreshRate(wm.getDefaultDisplay().getRefreshRate());
+
+		// Dictionaries are shared by all views, and outlive them long
+		// enough to survive configuration changes
+		if (mDictionaryResId != 0) {
+			mDictionary = DictionaryRegistry.acquire(getContext(),
+					mDictionaryResId, mDictionaryStatusForwarder);
+			mCandidateCache.invalidate();
 		}
+	}
 
-		initKeyboard();
+	@Override
+	protected void onDetachedFromWindow()
+	{
+		super.onDetachedFromWindow();
+
+		if (mDictionaryResId != 0) {
+			DictionaryRegistry.release(mDictionaryResId,
+					mDictionaryStatusForwarder);
+			mDictionary = new Dictionary();
+			mDictionaryReady = false;
+		}
 	}
 
 	@Override
@@ -227,7 +295,7 @@ public class NinjaTypeView
 
 	public void setDictionaryStatusListener(Dictionary.OnStatusChangeListener l)
 	{
-		mDictionary.mOnStatusChangeListener = l;
+		mDictionaryStatusListener = l;
 	}
 
 	public void setOnWordSwipedListener(OnWordSwipedListener l)
@@ -235,6 +303,60 @@ public class NinjaTypeView
 		mOnWordSwipedListener = l;
 	}
 
+	public void setOnReadyListener(OnReadyListener l)
+	{
+		mOnReadyListener = l;
+	}
+
+	public boolean isReady()
+	{
+		return mSwipyCanvas != null && mDictionaryReady;
+	}
+
+	private void notifyIfReady()
+	{
+		if (mOnReadyListener != null && isReady()) {
+			mOnReadyListener.onReady();
+		}
+	}
+
+	// In phrase mode, a single swipe may spell out several words.
+	// Candidates are then space-separated phrases
+	public void setPhraseModeEnabled(boolean enabled)
+	{
+		if (mPhraseMode != enabled) {
+			mPhraseMode = enabled;
+			mCandidateCache.invalidate();
+		}
+	}
+
+	public boolean isPhraseModeEnabled()
+	{
+		return mPhraseMode;
+	}
+
+	public float getCacheHitRatio()
+	{
+		return mCandidateCache.hitRatio();
+	}
+
+	public long getCacheSavedDecodeMillis()
+	{
+		return mCandidateCache.savedDecodeNanos() / 1000000;
+	}
+
+	// Decode time allowed per touch event
+	public long getDecodeBudgetMicros()
+	{
+		return mDecodeBudget.budgetNanos() / 1000;
+	}
+
+	// Times decoding had to be made cheaper to stay within budget
+	public int getDecodeDegradations()
+	{
+		return mDecodeBudget.degradations();
+	}
+
 	private float keyHeight()
 	{
 		mLabelPaint.getTextBounds("Q" /* FIXME */, 0, 1, mTempRect);
@@ -257,6 +379,8 @@ public class NinjaTypeView
 				mLongestKeySpan = KEYS[i].length;
 			}
 		}
+
+		mDecodeBudget = new DecodeBudget(mLongestKeySpan);
 	}
 
 	private void prepareBitmaps(Resources res)
@@ -287,6 +411,7 @@ public class NinjaTypeView
 		RectF keyRect = new RectF(0, 0, minKeyWidth, mKeyHeight);
 
 		mKeyboard.clear();
+		mCandidateCache.invalidate();
 
 		for (String[] row: KEYS) {
 			float rowWidth = minKeyWidth * row.length;
@@ -308,6 +433,8 @@ public class NinjaTypeView
 			keyRect.offset(0, mKeyHeight);
 		}
 
+		mKeyboard.computeNeighbors();
+
 		// Create drawables
 		mKeyboardBounds.set(keyboardLeft, keyboardTop,
 				keyboardLeft + bmpWidth, keyboardTop + bmpHeight);
@@ -317,190 +444,331 @@ public class NinjaTypeView
 
 		mSwipyDrawable = new BitmapDrawable(res, swipyBmp);
 		mSwipyDrawable.setBounds(mKeyboardBounds);
-	}
-
-	private static class Match
-	{
-		final Dictionary.INode mNode;
-		final String mWord;
-		final int mKeyIndex;
-		final float mStartingScore;
-		float mDistance;
-		final int mHits;
-
-		Match(Dictionary.INode node, String str, int keyIndex,
-				int hits, float startingScore)
-		{
-			mHits = hits;
-			mNode = node;
-			mWord = str;
-			mKeyIndex = keyIndex;
-			mStartingScore = startingScore;
-			mDistance = Float.MAX_VALUE;
-		}
 
-		float score()
-		{
-			return mStartingScore + (100f / (mDistance + 50f));
-		}
-
-		@Override
-		public String toString()
-		{
-			return String.format(Locale.getDefault(),
-					"%s (%.02f)", mWord, score());
-		}
+		notifyIfReady();
 	}
 
-	private class TouchHandler
-			implements OnTouchListener
+	// Decoder state for a single pointer. The trie and keyboard are only
+	// ever read, so any number of these can share them
+	private class Swipe
 	{
 		final PointF mPt;
 		final PointF mPrevPt;
-		final List<Match> mMatches;
-		final Set<String> mCandidates;
-		int mKeyCounter;
-		Keyboard.Key mPrevKey;
-
-		TouchHandler()
+		final SwipeDecoder mDecoder;
+		final HypothesisStore mStore;
+		final int[] mBest;
+		final Segmenter mSegmenter;
+		final List<Segmenter.Segment> mSegments;
+		final StringBuilder mSignature;
+		int mFedCount;
+		long mDecodeNanos;
+		boolean mDegraded;
+
+		Swipe()
 		{
 			mPt = new PointF();
 			mPrevPt = new PointF();
-			mMatches = new ArrayList<>();
-			mCandidates = new HashSet<>();
+			mDecoder = new SwipeDecoder();
+			mStore = mDecoder.store();
+			mBest = new int[MAX_CANDIDATES];
+			mSegmenter = new Segmenter(mKeyboard);
+			mSegments = new ArrayList<>();
+			mSignature = new StringBuilder();
 		}
 
-		void initSwipe(float x, float y)
+		void initSwipe(float x, float y, long time)
 		{
-			mKeyCounter = 0;
-			mPrevKey = null;
+			mFedCount = 0;
+			mDecodeNanos = 0;
+			mDegraded = false;
+			mSegmenter.reset(x, y, time, mKeyHeight / 4);
 			mPt.set(x, y);
-			mMatches.clear();
-			mCandidates.clear();
+			mDecoder.reset(mDictionary, mPhraseMode);
+			mSegments.clear();
+			mSignature.setLength(0);
+
+			mCandidateCache.validate(mDictionary.mGeneration);
 		}
 
-		void swipeChanged(float x, float y)
+		void swipeChanged(float x, float y, long time)
 		{
 			mPrevPt.set(mPt);
 			mPt.set(x, y);
 
-			Keyboard.Key key;
-			if ((key = mKeyboard.keyAt(x, y)) != null) {
-				if (key != mPrevKey) {
-					keyChanged(key, ++mKeyCounter);
-					mPrevKey = key;
-				} else {
-					updateDistances(key.distanceFromCenter(x, y), mKeyCounter);
-				}
+			Segmenter.Segment segment;
+			if ((segment = mSegmenter.addPoint(x, y, time)) != null) {
+				segmentEnded(segment);
+			} else if (mFedCount < mSegments.size()
+					&& !mCandidateCache.isPrefix(mSignature)) {
+				// Catch up on segments an earlier event ran out of time for
+				feedSegments(true);
 			}
 
 			mSwipyCanvas.drawLine(mPrevPt.x, mPrevPt.y, x, y, mSwipyPaint);
 		}
 
-		void endSwipe()
+		void segmentEnded(Segmenter.Segment segment)
 		{
-			mSwipyCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+			mSegments.add(segment);
+			CandidateCache.appendToken(mSignature, segment.mKey.mChar,
+					segment.intended() ? 1 : 0,
+					(segment.mDistance < mKeyHeight / 4) ? 1 : 0);
+
+			// While the gesture still follows one we've decoded before,
+			// hold off on decoding - we may not need to at all
+			if (!mCandidateCache.isPrefix(mSignature)) {
+				feedSegments(true);
+			}
+		}
 
-			if (mOnWordSwipedListener != null) {
-				Collections.sort(mMatches, SCORE_COMPARATOR);
-				List<String> candidates = new ArrayList<>();
-				for (Match m: mMatches) {
-					if (m.mNode.terminal()) {
-						Log.v(LOG_TAG, m + "");
-						candidates.add(m.mWord);
-					}
+		// With a deadline, decoding is as thorough as the budget currently
+		// allows, and segments left over once it passes wait for the next
+		// event. Without one, everything is decoded at full quality
+		void feedSegments(boolean deadline)
+		{
+			long started = System.nanoTime();
+			int lookBack;
+			int beamWidth;
+			if (deadline) {
+				lookBack = mDecodeBudget.lookBack();
+				beamWidth = mDecodeBudget.beamWidth();
+				mDegraded |= mDecodeBudget.isDegraded();
+			} else {
+				lookBack = mLongestKeySpan;
+				beamWidth = DecodeBudget.UNLIMITED;
+			}
+
+			int widest = 0;
+			for (int n = mSegments.size(), first = mFedCount; mFedCount < n; mFedCount++) {
+				if (deadline && mFedCount > first && mDecodeBudget.expired()) {
+					break;
+				}
+
+				widest = Math.max(widest, mDecoder.feed(mSegments.get(mFedCount),
+						lookBack, beamWidth));
+			}
+
+			long elapsed = System.nanoTime() - started;
+			mDecodeNanos += elapsed;
+			if (deadline) {
+				mDecodeBudget.spent(elapsed, widest);
+			}
+		}
+
+		void endSwipe(long time)
+		{
+			Segmenter.Segment segment;
+			if ((segment = mSegmenter.finish(time)) != null) {
+				segmentEnded(segment);
+			}
+
+			String signature = mSignature.toString();
+			List<String> candidates = mCandidateCache.get(signature);
+			if (candidates == null) {
+				if (mDegraded) {
+					// Pruned harder than usual along the way - with the
+					// gesture complete, replay it at full quality
+					Log.v(LOG_TAG, "Replaying degraded decode");
+					mDecoder.clear();
+					mFedCount = 0;
+				}
+				feedSegments(false);
+
+				long started = System.nanoTime();
+				candidates = new ArrayList<>();
+				for (int i = 0, n = mDecoder.best(mBest);
+						i < n && candidates.size() < MAX_CANDIDATES; i++) {
+					int h = mBest[i];
+					String word = mStore.word(h);
+					Log.v(LOG_TAG, String.format(Locale.getDefault(),
+							"%s (%.02f)", word, mStore.score(h)));
+					addWord(candidates, mStore.node(h), word);
 				}
 
+				if (candidates.isEmpty()) {
+					addCorrections(candidates);
+				}
+				mDecodeNanos += System.nanoTime() - started;
+
+				mCandidateCache.put(signature, candidates, mDecodeNanos);
+				Log.v(LOG_TAG, mStore.size() + " hypotheses");
+			} else {
+				Log.v(LOG_TAG, String.format(Locale.getDefault(),
+						"Cache hit (%.0f%% hit ratio)",
+						mCandidateCache.hitRatio() * 100));
+			}
+
+			if (mOnWordSwipedListener != null) {
 				if (!candidates.isEmpty()) {
-					mOnWordSwipedListener.onWordSwiped(candidates.subList(0,
-							Math.min(candidates.size(), MAX_CANDIDATES)));
+					mOnWordSwipedListener.onWordSwiped(candidates);
 				} else {
 					mOnWordSwipedListener.onNoMatches();
 				}
 			}
 
-			Log.v(LOG_TAG, mMatches.size() + " candidates");
+			cancelSwipe();
+		}
 
-			mCandidates.clear();
-			mMatches.clear();
+		void cancelSwipe()
+		{
+			mDecoder.clear();
+			mSegments.clear();
 		}
 
-		void updateDistances(float distance, int keyIndex)
+		// Words are matched by their keys - list them the way they're
+		// actually spelled. In a phrase, only the last word is at node, so
+		// earlier ones are just lowercased
+		void addWord(List<String> candidates, Dictionary.INode node, String word)
 		{
-			for (Match m: mMatches) {
-				if (m.mKeyIndex == keyIndex) {
-					if (m.mDistance > distance) {
-						m.mDistance = distance;
-					} else {
-						break; // FIXME?
-					}
+			String[] forms = mDictionary.surfaceForms(node);
+			if (forms == null) {
+				candidates.add(word.toLowerCase(Locale.ROOT));
+				return;
+			}
+
+			String phrase = word.substring(0, word.lastIndexOf(' ') + 1)
+					.toLowerCase(Locale.ROOT);
+			for (String form: forms) {
+				if (candidates.size() < MAX_CANDIDATES) {
+					candidates.add(phrase + form);
 				}
 			}
 		}
 
-		void keyChanged(Keyboard.Key key, int keyIndex)
+		// No path through the trie matched the swipe - look for words a
+		// couple of edits away from the keys that were likely intended
+		void addCorrections(List<String> candidates)
 		{
-			if (mMatches.isEmpty()) {
-				addCandidates(null, key.mChar, keyIndex);
-			} else {
-				for (int i = mMatches.size() - 1; i >= 0; i--) {
-					Match m = mMatches.get(i);
-					if (keyIndex - m.mKeyIndex > mLongestKeySpan) {
-						// Don't go too far back
-						break;
-					}
-					addCandidates(m, key.mChar, keyIndex);
+			StringBuilder query = new StringBuilder();
+			for (Segmenter.Segment segment: mSegments) {
+				if (segment.intended()) {
+					query.append(segment.mKey.mChar);
 				}
 			}
+			if (query.length() == 0 || query.length() > FuzzyLookup.MAX_QUERY_LENGTH) {
+				return;
+			}
+
+			long started = System.nanoTime();
+			List<FuzzyLookup.Result> results = mDictionary.lookupApproximate(
+					query.toString(), MAX_CORRECTION_DISTANCE, MAX_CANDIDATES);
+			for (FuzzyLookup.Result result: results) {
+				addWord(candidates, result.mNode, result.mWord);
+			}
+
+			Log.v(LOG_TAG, String.format(Locale.getDefault(),
+					"%d corrections for %s in %.02fms", results.size(), query,
+					(System.nanoTime() - started) / 1000000f));
 		}
+	}
 
-		void addCandidates(Match match, char ch, int keyIndex)
+	private class TouchHandler
+			implements OnTouchListener
+	{
+		private static final int MAX_SPARE_SWIPES = 4;
+
+		final SparseArray<Swipe> mSwipes;
+		final List<Swipe> mSpareSwipes;
+
+		TouchHandler()
 		{
-			Dictionary.INode current;
-			String prefix;
-			final int hits;
-			final float score;
-
-			if (match == null) {
-				current = mDictionary.mRoot;
-				prefix = "";
-				hits = 1;
-				score = 0;
-			} else {
-				current = match.mNode;
-				prefix = match.mWord;
-				hits = match.mHits + 1;
-				score = match.score();
+			mSwipes = new SparseArray<>();
+			mSpareSwipes = new ArrayList<>();
+		}
+
+		void pointerDown(MotionEvent event, int index)
+		{
+			float x = event.getX(index) - mKeyboardBounds.left;
+			float y = event.getY(index) - mKeyboardBounds.top;
+
+			// Reuse state from finished swipes where possible
+			Swipe swipe = mSpareSwipes.isEmpty()
+					? new Swipe() : mSpareSwipes.remove(mSpareSwipes.size() - 1);
+			mSwipes.put(event.getPointerId(index), swipe);
+
+			swipe.initSwipe(x, y, event.getEventTime());
+			swipe.swipeChanged(x, y, event.getEventTime());
+		}
+
+		void pointerUp(MotionEvent event, int index)
+		{
+			int id = event.getPointerId(index);
+			Swipe swipe = mSwipes.get(id);
+			if (swipe != null) {
+				mSwipes.remove(id);
+				swipe.endSwipe(event.getEventTime());
+				recycle(swipe);
 			}
+		}
 
-			Dictionary.INode next;
-			while ((next = current.next(ch)) != null) {
-				String word = prefix + ch;
-				if (!mCandidates.contains(word)) {
-					mMatches.add(new Match(next, word, keyIndex, hits, score));
-					mCandidates.add(word);
-				}
+		void cancelAll()
+		{
+			for (int i = mSwipes.size() - 1; i >= 0; i--) {
+				Swipe swipe = mSwipes.valueAt(i);
+				swipe.cancelSwipe();
+				recycle(swipe);
+			}
+			mSwipes.clear();
+		}
 
-				current = next;
-				prefix = word;
+		void recycle(Swipe swipe)
+		{
+			if (mSpareSwipes.size() < MAX_SPARE_SWIPES) {
+				mSpareSwipes.add(swipe);
 			}
 		}
 
 		@Override
 		public boolean onTouch(View v, MotionEvent event)
 		{
+			if (mSwipyCanvas == null) {
+				// Not laid out yet
+				return false;
+			}
+
+			mDecodeBudget.beginEvent();
 			switch (event.getActionMasked()) {
-			case MotionEvent.ACTION_UP:
-				endSwipe();
-				break;
 			case MotionEvent.ACTION_DOWN:
-				initSwipe(event.getX() - mKeyboardBounds.left,
-						event.getY() - mKeyboardBounds.top);
+				// Anything still in progress missed its ACTION_UP
+				cancelAll();
 				// fallthrough
+			case MotionEvent.ACTION_POINTER_DOWN:
+				pointerDown(event, event.getActionIndex());
+				break;
 			case MotionEvent.ACTION_MOVE:
-				swipeChanged(event.getX() - mKeyboardBounds.left,
-						event.getY() - mKeyboardBounds.top);
+				for (int i = 0, n = event.getPointerCount(); i < n; i++) {
+					Swipe swipe = mSwipes.get(event.getPointerId(i));
+					if (swipe == null) {
+						continue;
+					}
+
+					// Moves are batched per frame - replay the samples
+					// in between, or fast swipes cut corners
+					for (int h = 0, hn = event.getHistorySize(); h < hn; h++) {
+						swipe.swipeChanged(
+								event.getHistoricalX(i, h) - mKeyboardBounds.left,
+								event.getHistoricalY(i, h) - mKeyboardBounds.top,
+								event.getHistoricalEventTime(h));
+					}
+					swipe.swipeChanged(event.getX(i) - mKeyboardBounds.left,
+							event.getY(i) - mKeyboardBounds.top,
+							event.getEventTime());
+				}
+				break;
+			case MotionEvent.ACTION_UP:
+			case MotionEvent.ACTION_POINTER_UP:
+				// Each pointer's gesture completes on its own
+				pointerUp(event, event.getActionIndex());
 				break;
+			case MotionEvent.ACTION_CANCEL:
+				cancelAll();
+				break;
+			}
+
+			mDecodeBudget.endEvent();
+
+			if (mSwipes.size() == 0) {
+				mSwipyCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
 			}
 
 			invalidate();
@@ -0,0 +1,166 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+
+class Segmenter
+{
+	static final float PASS_THROUGH_WEIGHT = .25f;
+
+	private static final long DWELL_THRESHOLD_MS = 150;
+	private static final float CORNER_ANGLE = (float) Math.toRadians(50);
+	private static final float SLOWDOWN_RATIO = .4f;
+	private static final float SPEED_SMOOTHING = .3f;
+
+	private final Keyboard mKeyboard;
+	private Segment mCurrent;
+	private int mKeyCounter;
+	private float mMinStep;
+	private long mLastTime;
+	private float mLastX;
+	private float mLastY;
+	private float mAnchorX;
+	private float mAnchorY;
+	private float mHeading;
+	private float mSpeed;
+	private float mSpeedTotal;
+	private int mSpeedSamples;
+
+	Segmenter(Keyboard keyboard)
+	{
+		mKeyboard = keyboard;
+	}
+
+	void reset(float x, float y, long time, float minStep)
+	{
+		mCurrent = null;
+		mKeyCounter = 0;
+		mMinStep = minStep;
+		mLastTime = time;
+		mLastX = mAnchorX = x;
+		mLastY = mAnchorY = y;
+		mHeading = Float.NaN;
+		mSpeed = 0;
+		mSpeedTotal = 0;
+		mSpeedSamples = 0;
+	}
+
+	// Returns the segment that was completed by this point, if any
+	Segment addPoint(float x, float y, long time)
+	{
+		long dt = time - mLastTime;
+		if (dt > 0) {
+			float v = (float) Math.hypot(x - mLastX, y - mLastY) / dt;
+			mSpeed = (mSpeedSamples == 0)
+					? v : mSpeed + (v - mSpeed) * SPEED_SMOOTHING;
+			mSpeedTotal += mSpeed;
+			mSpeedSamples++;
+		}
+
+		// Only measure heading over a minimum distance, so that jitter
+		// doesn't register as curvature
+		float turn = 0;
+		if (Math.hypot(x - mAnchorX, y - mAnchorY) >= mMinStep) {
+			float heading = (float) Math.atan2(y - mAnchorY, x - mAnchorX);
+			if (!Float.isNaN(mHeading)) {
+				turn = Math.abs(heading - mHeading);
+				if (turn > Math.PI) {
+					turn = (float) (2 * Math.PI) - turn;
+				}
+			}
+			mHeading = heading;
+			mAnchorX = x;
+			mAnchorY = y;
+		}
+
+		mLastX = x;
+		mLastY = y;
+		mLastTime = time;
+
+		Segment completed = null;
+		Keyboard.Key key;
+		if ((key = mKeyboard.keyAt(x, y)) != null) {
+			if (mCurrent == null || key != mCurrent.mKey) {
+				if (mCurrent != null) {
+					completed = complete(mCurrent, time, false);
+				}
+				mCurrent = new Segment(key, ++mKeyCounter, time, mSpeed);
+			} else {
+				mCurrent.mDistance = Math.min(mCurrent.mDistance,
+						key.distanceFromCenter(x, y));
+				mCurrent.mMinSpeed = Math.min(mCurrent.mMinSpeed, mSpeed);
+			}
+			mCurrent.mMaxTurn = Math.max(mCurrent.mMaxTurn, turn);
+		}
+
+		return completed;
+	}
+
+	// Returns the final segment of the gesture, if any
+	Segment finish(long time)
+	{
+		Segment last = null;
+		if (mCurrent != null) {
+			last = complete(mCurrent, time, true);
+			mCurrent = null;
+		}
+
+		return last;
+	}
+
+	private Segment complete(Segment segment, long time, boolean last)
+	{
+		float averageSpeed = (mSpeedSamples > 0)
+				? mSpeedTotal / mSpeedSamples : 0;
+
+		// The ends of a gesture, corners, and places where the pointer
+		// lingered or slowed down are likely intended. Anything else is a
+		// key the pointer just happened to pass over
+		boolean intended = last
+				|| segment.mKeyIndex == 1
+				|| time - segment.mEnteredAt >= DWELL_THRESHOLD_MS
+				|| segment.mMaxTurn >= CORNER_ANGLE
+				|| segment.mMinSpeed < averageSpeed * SLOWDOWN_RATIO;
+
+		segment.mWeight = intended ? 1 : PASS_THROUGH_WEIGHT;
+
+		return segment;
+	}
+
+	static class Segment
+	{
+		final Keyboard.Key mKey;
+		final int mKeyIndex;
+		final long mEnteredAt;
+		float mDistance;
+		float mMinSpeed;
+		float mMaxTurn;
+		float mWeight;
+
+		Segment(Keyboard.Key key, int keyIndex, long enteredAt, float speed)
+		{
+			mKey = key;
+			mKeyIndex = keyIndex;
+			mEnteredAt = enteredAt;
+			mDistance = Float.MAX_VALUE;
+			mMinSpeed = speed;
+		}
+
+		boolean intended()
+		{
+			return mWeight >= 1;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import java.util.Arrays;
+
+// Matches a swipe against the trie one segment at a time, keeping the
+// hypotheses in a HypothesisStore
+class SwipeDecoder
+{
+	// Most a single key can score - a swipe right through its center
+	static final float MAX_KEY_SCORE = 2f;
+	// What every matched key costs, so that of two words fitting the swipe
+	// equally well, the one picking up fewer keys in passing wins
+	static final float MATCH_PENALTY = .6f;
+	// What leaving out a key the user most likely meant costs
+	static final float SKIP_PENALTY = 1f;
+	static final float NEIGHBOR_PENALTY = 1f;
+	// Starting another word costs more than a key can score, so phrases
+	// aren't padded out with short words just to match more keys
+	static final float WORD_BOUNDARY_PENALTY = 2 * MAX_KEY_SCORE;
+	static final int PHRASE_BEAM_WIDTH = 64;
+
+	private final HypothesisStore mStore;
+	private Dictionary mDictionary;
+	private boolean mPhraseMode;
+	private int mLookBack;
+	private float[] mSkipCosts;
+	private int mLastKeyIndex;
+
+	SwipeDecoder()
+	{
+		mStore = new HypothesisStore();
+		mSkipCosts = new float[32];
+	}
+
+	// Starts a new swipe against the given dictionary
+	void reset(Dictionary dictionary, boolean phraseMode)
+	{
+		mDictionary = dictionary;
+		mPhraseMode = phraseMode;
+		clear();
+	}
+
+	// Drops what's been decoded so far, keeping the dictionary
+	void clear()
+	{
+		mStore.clear();
+		mLastKeyIndex = 0;
+	}
+
+	HypothesisStore store()
+	{
+		return mStore;
+	}
+
+	// Extends hypotheses ending up to lookBack keys earlier with the
+	// segment's key, keeping at most beamWidth of the new ones. Returns how
+	// many were added before pruning
+	int feed(Segmenter.Segment segment, int lookBack, int beamWidth)
+	{
+		int start = mStore.size();
+		int keyIndex = segment.mKeyIndex;
+		mLookBack = lookBack;
+		mLastKeyIndex = keyIndex;
+
+		if (keyIndex >= mSkipCosts.length) {
+			mSkipCosts = Arrays.copyOf(mSkipCosts, Math.max(keyIndex + 1,
+					mSkipCosts.length * 2));
+		}
+		// What skipping every intended key up to this one would cost
+		mSkipCosts[keyIndex] = mSkipCosts[keyIndex - 1]
+				+ (segment.intended() ? SKIP_PENALTY : 0);
+
+		// Keys the pointer merely passed over don't get their neighbors
+		// expanded
+		keyChanged(segment.mKey, keyIndex, segment.intended());
+		if (segment.mDistance != Float.MAX_VALUE) {
+			// Keys merely passed over count for less
+			mStore.updateKeyScores(keyIndex, segment.mWeight
+					* MAX_KEY_SCORE * 50f / (segment.mDistance + 50f));
+		}
+
+		// Word boundaries can occur anywhere, so phrase mode always keeps
+		// only the best few hypotheses ending at each key
+		int added = mStore.size() - start;
+		mStore.prune(start, mPhraseMode
+				? Math.min(PHRASE_BEAM_WIDTH, beamWidth) : beamWidth);
+
+		return added;
+	}
+
+	// Writes the best words ending at the last key fed to best, best
+	// first. Returns how many were written
+	int best(int[] best)
+	{
+		return mStore.best(best, mStore.groupStart(mLastKeyIndex));
+	}
+
+	private void keyChanged(Keyboard.Key key, int keyIndex, boolean expandNeighbors)
+	{
+		int mask = expandNeighbors ? key.mNeighbors : Keyboard.bit(key.mChar);
+		boolean first = (mStore.size() == 0);
+
+		mStore.startGroup(keyIndex);
+		if (first) {
+			addCandidates(HypothesisStore.NONE, key, mask, mSkipCosts[keyIndex - 1]);
+			return;
+		}
+
+		// Don't go too far back
+		for (int k = keyIndex - 1, last = Math.max(0, keyIndex - mLookBack);
+				k >= last; k--) {
+			// The segmenter often only notices a corner once the pointer is
+			// on the key past it, so the key right after a match is never
+			// counted as skipped
+			float skipped = mSkipCosts[keyIndex - 1]
+					- mSkipCosts[Math.min(keyIndex - 1, k + 1)];
+			for (int i = mStore.groupEnd(k) - 1, start = mStore.groupStart(k);
+					i >= start; i--) {
+				if (!mStore.isPruned(i)) {
+					addCandidates(i, key, mask, skipped);
+				}
+			}
+		}
+	}
+
+	private void addCandidates(int match, Keyboard.Key key, int mask, float skipped)
+	{
+		Dictionary.INode current;
+		final int hits;
+		final float score;
+
+		if (match == HypothesisStore.NONE) {
+			current = mDictionary.mRoot;
+			hits = 1;
+			score = -skipped;
+		} else {
+			current = mStore.node(match);
+			hits = mStore.hits(match) + 1;
+			score = mStore.score(match) - skipped;
+		}
+
+		expand(current, match, false, key, mask, hits, score);
+
+		// A complete word may also be followed by another one, starting
+		// over from the root
+		if (mPhraseMode && match != HypothesisStore.NONE && current.terminal()) {
+			expand(mDictionary.mRoot, match, true, key, mask,
+					hits, score - WORD_BOUNDARY_PENALTY);
+		}
+	}
+
+	private void expand(Dictionary.INode current, int parent, boolean spaced,
+			Keyboard.Key key, int mask, int hits, float score)
+	{
+		// Expand the swiped key along with any of its neighbors, in one
+		// pass over the children that are actually present
+		for (int bits = current.childMask() & mask; bits != 0;
+				bits &= bits - 1) {
+			int index = Integer.numberOfTrailingZeros(bits);
+			char ch = (char) ('A' + index);
+			float penalty = MATCH_PENALTY + neighborPenalty(key, index);
+
+			addRepeated(current, parent, spaced, ch, hits, score - penalty);
+		}
+	}
+
+	// Matching a neighbor costs more than any key can score plus what
+	// skipping it would, so it's never worth it just to make a word longer -
+	// only when the word can't be reached without it. Nearer neighbors cost
+	// less
+	static float neighborPenalty(Keyboard.Key key, int index)
+	{
+		float distance = key.mPenalties[index];
+		return (distance == 0)
+				? 0 : MAX_KEY_SCORE + SKIP_PENALTY + distance * NEIGHBOR_PENALTY;
+	}
+
+	private void addRepeated(Dictionary.INode current, int parent, boolean spaced,
+			char ch, int hits, float score)
+	{
+		Dictionary.INode next;
+		while ((next = current.next(ch)) != null) {
+			// Words already reached some other way are extended as is
+			parent = mStore.add(parent, spaced, ch, next, hits, score);
+			spaced = false;
+			current = next;
+		}
+	}
+}
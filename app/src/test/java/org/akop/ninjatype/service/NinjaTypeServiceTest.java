@@ -0,0 +1,104 @@
+package org.akop.ninjatype.service;
+
+import android.app.Activity;
+import android.view.View;
+import android.view.inputmethod.EditorInfo;
+
+import org.akop.ninjatype.BuildConfig;
+import org.akop.ninjatype.view.DictionaryRegistry;
+import org.akop.ninjatype.view.NinjaTypeView;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class NinjaTypeServiceTest
+{
+	// A warm keyboard should be able to take a swipe within a frame of
+	// being shown
+	private static final long MAX_SHOW_TO_READY_NANOS = 16000000;
+	private static final long MAX_LOAD_MS = 30000;
+
+	private NinjaTypeService mService;
+	private Activity mActivity;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		// The registry is process-wide, and would otherwise carry
+		// dictionaries over from earlier tests
+		DictionaryRegistry.reset();
+
+		mService = Robolectric.setupService(NinjaTypeService.class);
+		mService.onInitializeInterface();
+		mActivity = Robolectric.setupActivity(Activity.class);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		DictionaryRegistry.reset();
+	}
+
+	@Test
+	public void inputView_isReusedAcrossSessions() throws Exception
+	{
+		View first = showKeyboard();
+		mService.onFinishInputView(true);
+		View second = showKeyboard();
+
+		assertSame(first, second);
+	}
+
+	@Test
+	public void keyboard_isReadyWithinFrameOfShow_onceWarm() throws Exception
+	{
+		// First session pays for inflation, layout and the dictionary load
+		NinjaTypeView view = showKeyboard();
+		// The load runs on a real thread, so wait in real time
+		long deadline = System.currentTimeMillis() + MAX_LOAD_MS;
+		while (!view.isReady() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			ShadowLooper.runUiThreadTasks();
+		}
+		long cold = mService.getShowToReadyNanos();
+		assertTrue("Never became ready", cold >= 0);
+		mService.onFinishInputView(true);
+
+		// Later sessions should find everything in place
+		showKeyboard();
+		long warm = mService.getShowToReadyNanos();
+		System.out.println(String.format(Locale.ROOT,
+				"Show to ready: cold %.02fms, warm %.03fms",
+				cold / 1000000f, warm / 1000000f));
+
+		assertTrue("Took " + warm + "ns", warm >= 0 && warm < MAX_SHOW_TO_READY_NANOS);
+	}
+
+	private NinjaTypeView showKeyboard()
+	{
+		NinjaTypeView view = (NinjaTypeView) mService.onCreateInputView();
+		if (view.getParent() == null) {
+			// Attaching is what acquires the dictionary
+			mActivity.setContentView(view);
+		}
+		if (view.getWidth() == 0) {
+			view.measure(View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+					View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+			view.layout(0, 0, 1080, view.getMeasuredHeight());
+		}
+		mService.onStartInputView(new EditorInfo(), false);
+
+		return view;
+	}
+}
@@ -0,0 +1,107 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import org.akop.ninjatype.BuildConfig;
+import org.akop.ninjatype.R;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class DictionaryCompletionTest
+{
+	// Every prefix up to this long is completed
+	private static final int MAX_PREFIX_LENGTH = 3;
+
+	private static final int WARMUP_ROUNDS = 2;
+	private static final int ROUNDS = 5;
+
+	private Dictionary mDictionary;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mDictionary = new Dictionary();
+		assertTrue(mDictionary.load(RuntimeEnvironment.application,
+				R.raw.default_dictionary));
+	}
+
+	@Test
+	public void completions_startWithPrefix() throws Exception
+	{
+		int[] counts = new int[2];
+		completeAll(new StringBuilder(), counts, true);
+
+		assertTrue("No completions", counts[1] > 0);
+	}
+
+	// Not a pass/fail check - timings depend on the machine, so they're
+	// just reported
+	@Test
+	public void completions_benchmark() throws Exception
+	{
+		int[] counts = new int[2];
+		long elapsed = 0;
+		for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+			if (round == WARMUP_ROUNDS) {
+				counts[0] = counts[1] = 0;
+			}
+
+			long started = System.nanoTime();
+			completeAll(new StringBuilder(), counts, false);
+			if (round >= WARMUP_ROUNDS) {
+				elapsed += System.nanoTime() - started;
+			}
+		}
+
+		System.out.println(String.format(Locale.ROOT,
+				"%d completion queries (%d results) in %.02fms (%.02fus/query)",
+				counts[0] / ROUNDS, counts[1] / ROUNDS, elapsed / (ROUNDS * 1000000f),
+				elapsed / 1000f / counts[0]));
+	}
+
+	// Completes every prefix up to MAX_PREFIX_LENGTH letters, counting
+	// queries and results
+	private void completeAll(StringBuilder prefix, int[] counts, boolean check)
+	{
+		for (char ch = 'A'; ch <= 'Z'; ch++) {
+			prefix.append(ch);
+			counts[0]++;
+
+			String lower = prefix.toString().toLowerCase(Locale.ROOT);
+			for (String word: mDictionary.complete(prefix, Dictionary.TOP_K)) {
+				counts[1]++;
+				if (check) {
+					assertTrue(word + " doesn't start with " + prefix,
+							word.toLowerCase(Locale.ROOT).startsWith(lower));
+				}
+			}
+
+			if (prefix.length() < MAX_PREFIX_LENGTH) {
+				completeAll(prefix, counts, check);
+			}
+			prefix.setLength(prefix.length() - 1);
+		}
+	}
+}
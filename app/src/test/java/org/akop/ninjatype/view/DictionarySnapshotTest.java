@@ -0,0 +1,68 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import org.akop.ninjatype.BuildConfig;
+import org.akop.ninjatype.R;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class DictionarySnapshotTest
+{
+	@Test
+	public void snapshot_restoresIndexedTrie() throws Exception
+	{
+		File file = new DictionarySnapshot(RuntimeEnvironment.application,
+				R.raw.default_dictionary).file();
+		file.delete();
+
+		Dictionary built = new Dictionary();
+		assertTrue(built.load(RuntimeEnvironment.application, R.raw.default_dictionary));
+		assertFalse(built.mFromSnapshot);
+		built.writeSnapshot();
+		assertTrue(file + " not written", file.exists());
+
+		Dictionary restored = new Dictionary();
+		assertTrue(restored.load(RuntimeEnvironment.application, R.raw.default_dictionary));
+		assertTrue(restored.mFromSnapshot);
+
+		assertSameNode(built.mRoot, restored.mRoot);
+		assertEquals(built.complete("TH", Dictionary.TOP_K),
+				restored.complete("TH", Dictionary.TOP_K));
+	}
+
+	private static void assertSameNode(Dictionary.INode expected, Dictionary.INode actual)
+	{
+		String word = expected.word();
+		assertEquals(word, expected.childMask(), actual.childMask());
+		assertEquals(word, expected.terminal(), actual.terminal());
+		assertEquals(word, expected.wordId(), actual.wordId());
+		assertTrue(word, Arrays.equals(expected.topK(), actual.topK()));
+
+		for (int i = 0, n = expected.childCount(); i < n; i++) {
+			assertSameNode(expected.child(i), actual.child(i));
+		}
+	}
+}
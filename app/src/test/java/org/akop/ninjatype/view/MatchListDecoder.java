@@ -0,0 +1,222 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+// The decoder as it was before HypothesisStore: one object per hypothesis,
+// in a list. Kept as a reference to check and time SwipeDecoder against
+class MatchListDecoder
+{
+	private static final Comparator<Match> SCORE_COMPARATOR
+			= new Comparator<Match>()
+	{
+		@Override
+		public int compare(Match o1, Match o2)
+		{
+			return Float.compare(o2.score(), o1.score());
+		}
+	};
+
+	private final Dictionary mDictionary;
+	private final boolean mPhraseMode;
+	private final int mLookBack;
+	private final int mBeamWidth;
+	private final float mBoundaryPenalty;
+	private final List<Match> mMatches;
+	private final Set<String> mCandidates;
+	private float[] mSkipCosts;
+
+	private static class Match
+	{
+		final Dictionary.INode mNode;
+		final String mWord;
+		final int mKeyIndex;
+		final float mStartingScore;
+		float mKeyScore;
+		final int mHits;
+
+		Match(Dictionary.INode node, String str, int keyIndex,
+				int hits, float startingScore)
+		{
+			mHits = hits;
+			mNode = node;
+			mWord = str;
+			mKeyIndex = keyIndex;
+			mStartingScore = startingScore;
+		}
+
+		float score()
+		{
+			return mStartingScore + mKeyScore;
+		}
+	}
+
+	MatchListDecoder(Dictionary dictionary, boolean phraseMode, int lookBack,
+			int beamWidth, float boundaryPenalty)
+	{
+		mDictionary = dictionary;
+		mPhraseMode = phraseMode;
+		mLookBack = lookBack;
+		mBeamWidth = beamWidth;
+		mBoundaryPenalty = boundaryPenalty;
+		mMatches = new ArrayList<>();
+		mCandidates = new HashSet<>();
+	}
+
+	// Returns the best word ending at the last key, or null if nothing
+	// matched
+	String decode(List<Segmenter.Segment> segments)
+	{
+		mMatches.clear();
+		mCandidates.clear();
+		mSkipCosts = new float[segments.size() + 1];
+
+		int keyIndex = 0;
+		for (Segmenter.Segment segment: segments) {
+			int start = mMatches.size();
+			keyIndex = segment.mKeyIndex;
+			mSkipCosts[keyIndex] = mSkipCosts[keyIndex - 1]
+					+ (segment.intended() ? SwipeDecoder.SKIP_PENALTY : 0);
+
+			keyChanged(segment.mKey, keyIndex, segment.intended());
+			if (segment.mDistance != Float.MAX_VALUE) {
+				updateKeyScores(segment.mWeight * SwipeDecoder.MAX_KEY_SCORE
+						* 50f / (segment.mDistance + 50f), keyIndex);
+			}
+			prune(start);
+		}
+
+		Collections.sort(mMatches, SCORE_COMPARATOR);
+		for (Match m: mMatches) {
+			if (m.mKeyIndex == keyIndex && m.mNode.terminal()) {
+				return m.mWord;
+			}
+		}
+
+		return null;
+	}
+
+	private void prune(int start)
+	{
+		List<Match> added = mMatches.subList(start, mMatches.size());
+		if (added.size() <= mBeamWidth) {
+			return;
+		}
+
+		Collections.sort(added, SCORE_COMPARATOR);
+		List<Match> pruned = added.subList(mBeamWidth, added.size());
+		for (Match m: pruned) {
+			mCandidates.remove(m.mWord);
+		}
+		pruned.clear();
+	}
+
+	private void updateKeyScores(float keyScore, int keyIndex)
+	{
+		for (Match m: mMatches) {
+			if (m.mKeyIndex == keyIndex) {
+				if (m.mKeyScore < keyScore) {
+					m.mKeyScore = keyScore;
+				} else {
+					break;
+				}
+			}
+		}
+	}
+
+	private void keyChanged(Keyboard.Key key, int keyIndex, boolean expandNeighbors)
+	{
+		int mask = expandNeighbors ? key.mNeighbors : Keyboard.bit(key.mChar);
+		if (mMatches.isEmpty()) {
+			addCandidates(null, key, mask, keyIndex, mSkipCosts[keyIndex - 1]);
+		} else {
+			for (int i = mMatches.size() - 1; i >= 0; i--) {
+				Match m = mMatches.get(i);
+				if (keyIndex - m.mKeyIndex > mLookBack) {
+					break;
+				}
+
+				// The key right after a match is never counted as skipped
+				float skipped = mSkipCosts[keyIndex - 1]
+						- mSkipCosts[Math.min(keyIndex - 1, m.mKeyIndex + 1)];
+				addCandidates(m, key, mask, keyIndex, skipped);
+			}
+		}
+	}
+
+	private void addCandidates(Match match, Keyboard.Key key, int mask,
+			int keyIndex, float skipped)
+	{
+		Dictionary.INode current;
+		String prefix;
+		final int hits;
+		final float score;
+
+		if (match == null) {
+			current = mDictionary.mRoot;
+			prefix = "";
+			hits = 1;
+			score = -skipped;
+		} else {
+			current = match.mNode;
+			prefix = match.mWord;
+			hits = match.mHits + 1;
+			score = match.score() - skipped;
+		}
+
+		expand(current, prefix, key, mask, keyIndex, hits, score);
+		if (mPhraseMode && match != null && current.terminal()) {
+			expand(mDictionary.mRoot, prefix + " ", key, mask, keyIndex,
+					hits, score - mBoundaryPenalty);
+		}
+	}
+
+	private void expand(Dictionary.INode current, String prefix, Keyboard.Key key,
+			int mask, int keyIndex, int hits, float score)
+	{
+		for (int bits = current.childMask() & mask; bits != 0;
+				bits &= bits - 1) {
+			int index = Integer.numberOfTrailingZeros(bits);
+			char ch = (char) ('A' + index);
+			float penalty = SwipeDecoder.MATCH_PENALTY
+					+ SwipeDecoder.neighborPenalty(key, index);
+
+			addRepeated(current, prefix, ch, keyIndex, hits, score - penalty);
+		}
+	}
+
+	private void addRepeated(Dictionary.INode current, String prefix, char ch,
+			int keyIndex, int hits, float score)
+	{
+		Dictionary.INode next;
+		while ((next = current.next(ch)) != null) {
+			String word = prefix + ch;
+			if (!mCandidates.contains(word)) {
+				mMatches.add(new Match(next, word, keyIndex, hits, score));
+				mCandidates.add(word);
+			}
+
+			current = next;
+			prefix = word;
+		}
+	}
+}
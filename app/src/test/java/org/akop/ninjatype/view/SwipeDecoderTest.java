@@ -0,0 +1,319 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import org.akop.ninjatype.BuildConfig;
+import org.akop.ninjatype.R;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class SwipeDecoderTest
+{
+	private static final String SWIPES = "swipes.txt";
+	private static final String SLOPPY_SWIPES = "sloppy_swipes.txt";
+
+	private static final String[] ROWS = { "QWERTYUIOP", "ASDFGHJKL", "ZXCVBNM" };
+	private static final float KEY_WIDTH = 100;
+	private static final float KEY_HEIGHT = 120;
+	private static final float CENTER_X = 500;
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 20;
+
+	// Swipes that don't currently decode to what was swiped. Each one
+	// should be taken off as soon as it does
+	private static final Set<String> KNOWN_FAILURES = new HashSet<>(Arrays.asList(
+			"PEOPLE", "TYPING", "COMPUTER", "SOMETHING", "WATER",
+			"HELLO WORLD", "THE DOG", "GOOD MORNING", "IT IS"));
+
+	private Dictionary mDictionary;
+	private Keyboard mKeyboard;
+
+	private static class Swipe
+	{
+		final String mText;
+		final boolean mPhraseMode;
+		final List<Segmenter.Segment> mSegments;
+
+		Swipe(String text, List<Segmenter.Segment> segments)
+		{
+			mText = text;
+			mPhraseMode = text.indexOf(' ') >= 0;
+			mSegments = segments;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception
+	{
+		mDictionary = new Dictionary();
+		assertTrue(mDictionary.load(RuntimeEnvironment.application,
+				R.raw.default_dictionary));
+
+		mKeyboard = keyboard(true);
+	}
+
+	@Test
+	public void recordedSwipes_decodeAsSwiped() throws Exception
+	{
+		SwipeDecoder decoder = new SwipeDecoder();
+		int[] best = new int[10];
+		for (Swipe swipe: readSwipes(SWIPES, mKeyboard)) {
+			String decoded = first(decode(decoder, swipe, best));
+
+			if (KNOWN_FAILURES.contains(swipe.mText)) {
+				assertFalse(swipe.mText + " now decodes - take it off KNOWN_FAILURES",
+						swipe.mText.equals(decoded));
+			} else {
+				assertEquals(swipe.mText, decoded);
+			}
+		}
+	}
+
+	// Phrases can't always come out on top - without word frequencies,
+	// THE DOG and THEE DOG fit the swipe equally well - but each should
+	// at least be among the candidates offered
+	@Test
+	public void recordedPhrases_areAmongCandidates() throws Exception
+	{
+		SwipeDecoder decoder = new SwipeDecoder();
+		int[] best = new int[10];
+		for (Swipe swipe: readSwipes(SWIPES, mKeyboard)) {
+			if (swipe.mPhraseMode) {
+				List<String> words = decode(decoder, swipe, best);
+				assertTrue(swipe.mText + " not in " + words,
+						words.contains(swipe.mText));
+			}
+		}
+	}
+
+	@Test
+	public void recordedSwipes_decodeAsWellWithNeighbors() throws Exception
+	{
+		SwipeDecoder decoder = new SwipeDecoder();
+		int[] best = new int[10];
+		List<Swipe> swipes = readSwipes(SWIPES, mKeyboard);
+		List<Swipe> keysOnly = readSwipes(SWIPES, keyboard(false));
+
+		for (int i = 0; i < swipes.size(); i++) {
+			String text = swipes.get(i).mText;
+			if (text.equals(first(decode(decoder, keysOnly.get(i), best)))) {
+				assertEquals(text, first(decode(decoder, swipes.get(i), best)));
+			}
+		}
+	}
+
+	@Test
+	public void sloppySwipes_decodeBetterWithNeighbors() throws Exception
+	{
+		SwipeDecoder decoder = new SwipeDecoder();
+		int[] best = new int[10];
+		List<Swipe> swipes = readSwipes(SLOPPY_SWIPES, mKeyboard);
+		List<Swipe> keysOnly = readSwipes(SLOPPY_SWIPES, keyboard(false));
+
+		int decoded = 0;
+		int decodedKeysOnly = 0;
+		for (int i = 0; i < swipes.size(); i++) {
+			String text = swipes.get(i).mText;
+			if (text.equals(first(decode(decoder, swipes.get(i), best)))) {
+				decoded++;
+			}
+			if (text.equals(first(decode(decoder, keysOnly.get(i), best)))) {
+				decodedKeysOnly++;
+			}
+		}
+
+		assertTrue(decoded + " decoded with neighbors, " + decodedKeysOnly
+				+ " without", decoded > decodedKeysOnly);
+	}
+
+	@Test
+	public void recordedSwipes_decodeAsReferenceDoes() throws Exception
+	{
+		SwipeDecoder decoder = new SwipeDecoder();
+		int[] best = new int[10];
+		for (Swipe swipe: readSwipes(SWIPES, mKeyboard)) {
+			MatchListDecoder reference = reference(swipe.mPhraseMode);
+
+			assertEquals(swipe.mText, reference.decode(swipe.mSegments),
+					first(decode(decoder, swipe, best)));
+		}
+	}
+
+	// Not a pass/fail check - timings depend on the machine, so they're
+	// just reported
+	@Test
+	public void recordedSwipes_benchmark() throws Exception
+	{
+		List<Swipe> swipes = readSwipes(SWIPES, mKeyboard);
+		SwipeDecoder decoder = new SwipeDecoder();
+		int[] best = new int[10];
+
+		long storeNanos = 0;
+		long listNanos = 0;
+		int segments = 0;
+		for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+			boolean timed = (round >= WARMUP_ROUNDS);
+			for (Swipe swipe: swipes) {
+				MatchListDecoder reference = reference(swipe.mPhraseMode);
+
+				long started = System.nanoTime();
+				decode(decoder, swipe, best);
+				long decoded = System.nanoTime();
+				reference.decode(swipe.mSegments);
+				long referenced = System.nanoTime();
+
+				if (timed) {
+					storeNanos += decoded - started;
+					listNanos += referenced - decoded;
+					segments += swipe.mSegments.size();
+				}
+			}
+		}
+
+		int decodes = swipes.size() * ROUNDS;
+		System.out.println(String.format(Locale.ROOT,
+				"%d swipes, %.01f segments avg: store %.03fms, object list %.03fms per swipe",
+				swipes.size(), segments / (float) decodes,
+				storeNanos / (decodes * 1000000f), listNanos / (decodes * 1000000f)));
+	}
+
+	// Decodes at full quality, the way NinjaTypeView does once a swipe ends
+	private List<String> decode(SwipeDecoder decoder, Swipe swipe, int[] best)
+	{
+		decoder.reset(mDictionary, swipe.mPhraseMode);
+		for (Segmenter.Segment segment: swipe.mSegments) {
+			decoder.feed(segment, ROWS[0].length(), DecodeBudget.UNLIMITED);
+		}
+
+		HypothesisStore store = decoder.store();
+		List<String> words = new ArrayList<>();
+		for (int i = 0, n = decoder.best(best); i < n; i++) {
+			words.add(store.word(best[i]));
+		}
+
+		return words;
+	}
+
+	private static String first(List<String> words)
+	{
+		return words.isEmpty() ? null : words.get(0);
+	}
+
+	private MatchListDecoder reference(boolean phraseMode)
+	{
+		return new MatchListDecoder(mDictionary, phraseMode, ROWS[0].length(),
+				phraseMode ? SwipeDecoder.PHRASE_BEAM_WIDTH : DecodeBudget.UNLIMITED,
+				SwipeDecoder.WORD_BOUNDARY_PENALTY);
+	}
+
+	// Lays out a QWERTY keyboard. Without neighbors, swiped keys match
+	// only themselves
+	private static Keyboard keyboard(boolean neighbors)
+	{
+		Keyboard keyboard = new Keyboard();
+		List<Keyboard.Row> rows = new ArrayList<>();
+		float top = 0;
+		for (String row: ROWS) {
+			Keyboard.Row r = keyboard.add(new Keyboard.Row(top, top + KEY_HEIGHT));
+			rows.add(r);
+			float left = CENTER_X - row.length() * KEY_WIDTH / 2;
+			for (int i = 0; i < row.length(); i++, left += KEY_WIDTH) {
+				char ch = row.charAt(i);
+				r.add(new Keyboard.Key(left, left + KEY_WIDTH, ch, String.valueOf(ch)));
+			}
+			top += KEY_HEIGHT;
+		}
+		keyboard.computeNeighbors();
+
+		if (!neighbors) {
+			for (Keyboard.Row row: rows) {
+				for (Keyboard.Key key: row.mKeys) {
+					key.mNeighbors = Keyboard.bit(key.mChar);
+				}
+			}
+		}
+
+		return keyboard;
+	}
+
+	// Runs the recorded touch samples through the segmenter, as the view
+	// would
+	private List<Swipe> readSwipes(String name, Keyboard keyboard) throws Exception
+	{
+		List<Swipe> swipes = new ArrayList<>();
+		InputStream in = getClass().getResourceAsStream(name);
+		assertNotNull(name + " not found", in);
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				String[] fields = line.split("\t");
+				String[] samples = fields[1].split(" ");
+				Segmenter segmenter = new Segmenter(keyboard);
+				List<Segmenter.Segment> segments = new ArrayList<>();
+				long time = 0;
+
+				for (int i = 0; i < samples.length; i++) {
+					String[] sample = samples[i].split(",");
+					float x = Float.parseFloat(sample[0]);
+					float y = Float.parseFloat(sample[1]);
+					time = Long.parseLong(sample[2]);
+
+					Segmenter.Segment segment;
+					if (i == 0) {
+						segmenter.reset(x, y, time, KEY_HEIGHT / 4);
+					} else if ((segment = segmenter.addPoint(x, y, time)) != null) {
+						segments.add(segment);
+					}
+				}
+
+				Segmenter.Segment segment;
+				if ((segment = segmenter.finish(time)) != null) {
+					segments.add(segment);
+				}
+
+				swipes.add(new Swipe(fields[0], segments));
+			}
+		} finally {
+			reader.close();
+		}
+
+		return swipes;
+	}
+}
@@ -0,0 +1,109 @@
+// Copyright 2016 Akop Karapetyan
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.akop.ninjatype.view;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrieBuilderTest
+{
+	@Test
+	public void rejectedWord_doesNotLeakIntoNextWord() throws Exception
+	{
+		// eng has no equivalent on the keys
+		assertEquals(Arrays.asList("ABC", "ABXY"),
+				build("ABC", "ABX\u014bq", "ABXY"));
+	}
+
+	@Test
+	public void rejectedWord_atStart_isSkipped() throws Exception
+	{
+		assertEquals(Arrays.asList("AB", "ABD"),
+				build("AB", "\u014bA", "ABD"));
+	}
+
+	@Test
+	public void foldedWord_keepsSurfaceForm() throws Exception
+	{
+		Dictionary.TrieBuilder builder = builder("cafe", "caf\u00e9", "stra\u00dfe");
+
+		assertEquals(Arrays.asList("CAFE", "STRASSE"), words(builder.mRoot));
+		assertEquals(Arrays.asList("cafe", "caf\u00e9"),
+				builder.mSurfaces.get(find(builder.mRoot, "CAFE")));
+		assertEquals(Arrays.asList("stra\u00dfe"),
+				builder.mSurfaces.get(find(builder.mRoot, "STRASSE")));
+	}
+
+	@Test
+	public void capitalizedWord_keepsCase_behindPlainSpelling() throws Exception
+	{
+		Dictionary.TrieBuilder builder = builder("I", "Jean", "i", "jean", "the");
+
+		assertEquals(Arrays.asList("i", "I"),
+				builder.mSurfaces.get(find(builder.mRoot, "I")));
+		assertEquals(Arrays.asList("jean", "Jean"),
+				builder.mSurfaces.get(find(builder.mRoot, "JEAN")));
+		assertNull(builder.mSurfaces.get(find(builder.mRoot, "THE")));
+	}
+
+	private static List<String> build(String... lines) throws Exception
+	{
+		return words(builder(lines).mRoot);
+	}
+
+	private static Dictionary.TrieBuilder builder(String... lines) throws Exception
+	{
+		StringBuilder sb = new StringBuilder();
+		for (String line: lines) {
+			sb.append(line).append('\n');
+		}
+
+		return Dictionary.readFromStream(
+				new ByteArrayInputStream(sb.toString().getBytes("UTF-8")));
+	}
+
+	private static Dictionary.INode find(Dictionary.INode node, String word)
+	{
+		for (int i = 0; i < word.length() && node != null; i++) {
+			node = node.next(word.charAt(i));
+		}
+
+		return node;
+	}
+
+	private static List<String> words(Dictionary.INode root)
+	{
+		List<String> words = new ArrayList<>();
+		collect(root, words);
+
+		return words;
+	}
+
+	private static void collect(Dictionary.INode node, List<String> words)
+	{
+		if (node.terminal()) {
+			words.add(node.word());
+		}
+		for (int i = 0, n = node.childCount(); i < n; i++) {
+			collect(node.child(i), words);
+		}
+	}
+}